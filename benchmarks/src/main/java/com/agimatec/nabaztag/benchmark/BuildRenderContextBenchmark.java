@@ -0,0 +1,53 @@
+package com.agimatec.nabaztag.benchmark;
+
+import com.agimatec.nabaztag.teamcity.BuildRenderContext;
+import jetbrains.buildServer.Build;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of committers and comments over builds with many changes. Every invocation uses a fresh
+ * context, so nothing is memoized between invocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildRenderContextBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int modifications;
+
+    // the longest message of the recipients, -1 if one of them has no limit
+    @Param({"-1", "140"})
+    public int budget;
+
+    private Build build;
+
+    @Setup
+    public void setUp() {
+        build = SyntheticBuilds.build(1, modifications, 25);
+    }
+
+    @Benchmark
+    public String getUserNames() {
+        return new BuildRenderContext(build, budget, true).getUserNames();
+    }
+
+    @Benchmark
+    public String getComments() {
+        return new BuildRenderContext(build, budget, true).getComments();
+    }
+}
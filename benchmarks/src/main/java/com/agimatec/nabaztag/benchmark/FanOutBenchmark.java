@@ -0,0 +1,69 @@
+package com.agimatec.nabaztag.benchmark;
+
+import com.agimatec.nabaztag.teamcity.BuildRenderContext;
+import com.agimatec.nabaztag.teamcity.FanOutPlan;
+import com.agimatec.nabaztag.teamcity.FanOutPlanner;
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import com.agimatec.nabaztag.teamcity.RabbitDelivery;
+import com.agimatec.nabaztag.teamcity.RabbitSettings;
+import jetbrains.buildServer.users.NotificatorPropertyKey;
+import jetbrains.buildServer.users.PropertyKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One event delivered to a large set of recipients: render the message with the settings of every
+ * recipient and merge the deliveries to shared rabbits, as NabaztagNotificator.doNotification does before
+ * the messages are queued. Ten recipients share each rabbit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final PropertyKey BUILD_FAILED = new NotificatorPropertyKey("nabaztagNotifier", "buildFailed");
+
+    @Param({"10", "1000", "10000"})
+    public int recipients;
+
+    private List<RabbitSettings> settings;
+    private final FanOutPlanner planner = new FanOutPlanner();
+    private long buildId;
+
+    @Setup
+    public void setUp() {
+        settings = new ArrayList<RabbitSettings>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            settings.add(new RabbitSettings("rabbit" + (i / 10), "token" + (i / 10), "", "number ", 140, ", et cetera.",
+                    Collections.emptyMap()));
+        }
+    }
+
+    @Benchmark
+    public FanOutPlan fanOut() {
+        PlaceholderValues values = new BuildRenderContext(SyntheticBuilds.build(buildId++, 10, 3), 140, true).toPlaceholderValues();
+        List<RabbitDelivery> deliveries = new ArrayList<RabbitDelivery>(settings.size());
+        for (RabbitSettings recipient : settings) {
+            String text = recipient.getTemplate(BUILD_FAILED, "Build #PROJECT# failed, changes by #USER#.")
+                    .render(values, recipient.getHashText(), recipient.getMaxLength(), recipient.getEllipses());
+            deliveries.add(new RabbitDelivery(recipient.getEndpoint(), recipient.getVoice(), text));
+        }
+        return planner.plan(deliveries);
+    }
+}
@@ -0,0 +1,193 @@
+package com.agimatec.nabaztag.benchmark;
+
+import com.agimatec.nabaztag.metrics.Histogram;
+import com.agimatec.nabaztag.metrics.NotifierMetrics;
+import com.agimatec.nabaztag.teamcity.NabaztagNotificator;
+import com.agimatec.nabaztag.test.StandInApiServer;
+import jetbrains.buildServer.notification.NotificatorRegistry;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserModel;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A load test of the whole notifier: a {@link NabaztagNotificator} talks to a {@link StandInApiServer}
+ * while several threads report thousands of synthetic builds as successful or failed. It reports how fast
+ * the events were accepted, how fast the calls reached the server and the latency from the event to the
+ * answered call.
+ * <p/>
+ * The load and the behaviour of the stand-in are set with system properties: load.events (10000),
+ * load.rabbits (100), load.recipients per event (3), load.producers (4), load.serverThreads (64),
+ * load.latency and load.jitter of the server (20 and 30 ms), load.errorRate (0.01), load.stallRate (0.001),
+ * load.stall (20000 ms) and load.timeout (300 s). The test ends early when the server got no calls for
+ * load.idle (20000 ms) while the queue was empty, as then the remaining messages failed.
+ * The buildbunny.* properties of the plugin can be set the same way, by default messages are neither merged
+ * nor rate limited, so every event is one call per rabbit.
+ */
+public final class LoadGenerator {
+    private static final String EVENT_PREFIX = "event ";
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int events = Integer.getInteger("load.events", 10000);
+        final int rabbits = Integer.getInteger("load.rabbits", 100);
+        final int recipients = Math.min(rabbits, Integer.getInteger("load.recipients", 3));
+        int producers = Integer.getInteger("load.producers", 4);
+        int serverThreads = Integer.getInteger("load.serverThreads", 64);
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.timeout", 300));
+        long idleMillis = Long.getLong("load.idle", 20000);
+
+        StandInApiServer server = new StandInApiServer(serverThreads)
+                .setLatency(Long.getLong("load.latency", 20), Long.getLong("load.jitter", 30))
+                .setErrorRate(Double.parseDouble(System.getProperty("load.errorRate", "0.01")))
+                .setStalls(Double.parseDouble(System.getProperty("load.stallRate", "0.001")), Long.getLong("load.stall", 20000))
+                .start();
+
+        setDefault("buildbunny.api.url", server.getApiUrl());
+        setDefault("buildbunny.coalesce.window", "0");
+        setDefault("buildbunny.rateLimit.perMinute", "0");
+        setDefault("buildbunny.http.maxConnectionsPerHost", String.valueOf(serverThreads));
+        setDefault("buildbunny.log.level", "WARN");
+
+        // the time each event was reported, to measure the latency until its calls are answered
+        final long[] reportedNanos = new long[events];
+        final Histogram latency = new Histogram();
+        server.setListener(new StandInApiServer.Listener() {
+            public void answered(Map<String, String> parameters) {
+                int event = eventOf(parameters.get("tts"));
+                if (event >= 0 && event < events) {
+                    latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reportedNanos[event]));
+                }
+            }
+        });
+
+        File dataDirectory = Files.createTempDirectory("buildbunny-load").toFile();
+        final NabaztagNotificator notificator = new NabaztagNotificator(
+                SyntheticBuilds.<NotificatorRegistry>proxy(NotificatorRegistry.class, (proxy, method, arguments) -> null),
+                SyntheticBuilds.<UserModel>proxy(UserModel.class, (proxy, method, arguments) -> null),
+                new ServerPaths(dataDirectory.getAbsolutePath()));
+
+        final SUser[] users = new SUser[rabbits];
+        for (int i = 0; i < rabbits; i++) {
+            users[i] = SyntheticBuilds.user(i, "rabbit" + i, "token" + i);
+        }
+
+        System.out.println("-- " + events + " events for " + recipients + " of " + rabbits + " rabbits, "
+                + producers + " producers --");
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch reported = new CountDownLatch(producers);
+        ExecutorService producerThreads = Executors.newFixedThreadPool(producers);
+        long startNanos = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            producerThreads.execute(() -> {
+                int event;
+                while ((event = next.getAndIncrement()) < events) {
+                    Set<SUser> recipientUsers = new HashSet<SUser>(recipients * 2);
+                    for (int r = 0; r < recipients; r++) {
+                        recipientUsers.add(users[(event * recipients + r) % rabbits]);
+                    }
+                    SRunningBuild build = SyntheticBuilds.runningBuild(event, "Load " + EVENT_PREFIX + event, 5, 2);
+                    reportedNanos[event] = System.nanoTime();
+                    if (event % 10 == 0) {
+                        notificator.notifyBuildFailed(build, recipientUsers);
+                    } else {
+                        notificator.notifyBuildSuccessful(build, recipientUsers);
+                    }
+                }
+                reported.countDown();
+            });
+        }
+        reported.await();
+        long reportedMillis = elapsedMillis(startNanos);
+        producerThreads.shutdown();
+
+        // wait until every message is answered or discarded, or nothing happened for the idle time
+        long expected = (long) events * recipients;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long lastCalls = -1;
+        long lastProgressMillis = System.currentTimeMillis();
+        while (delivered() < expected && System.currentTimeMillis() < deadline) {
+            long calls = server.getCallCount();
+            if (calls != lastCalls || attribute("QueueDepth") > 0) {
+                lastCalls = calls;
+                lastProgressMillis = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgressMillis > idleMillis) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        long deliveredMillis = elapsedMillis(startNanos);
+
+        System.out.println("-- events reported in " + reportedMillis + " ms: " + perSecond(events, reportedMillis) + " events/s --");
+        System.out.println("-- calls answered in " + deliveredMillis + " ms: " + perSecond(latency.getCount(), deliveredMillis)
+                + " calls/s, " + latency.getCount() + " of " + expected + " messages --");
+        System.out.println("-- latency from event to answer: " + latency + " --");
+        System.out.println("-- server: " + server.getCallCount() + " calls, " + server.getErrorCount() + " errors, "
+                + server.getStallCount() + " stalls --");
+        System.out.println("-- notifier calls and messages: " + Arrays.toString(new String[]{
+                "sent=" + attribute("SentCount"), "rejected=" + attribute("RejectedCount"),
+                "failed=" + attribute("FailedCount"), "timedOut=" + attribute("TimedOutCount"),
+                "circuitOpen=" + attribute("CircuitOpenCount"), "dropped=" + attribute("DroppedCount"),
+                "expired=" + attribute("ExpiredCount"), "superseded=" + attribute("SupersededCount")}) + " --");
+
+        notificator.dispose();
+        server.stop();
+        System.exit(0);
+    }
+
+    /**
+     * @return The number of messages which were answered or discarded, failed calls may still be retried
+     */
+    private static long delivered() throws Exception {
+        return attribute("SentCount") + attribute("RejectedCount") + attribute("DroppedCount") + attribute("ExpiredCount")
+                + attribute("SupersededCount");
+    }
+
+    private static long attribute(String name) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        return ((Number) server.getAttribute(new ObjectName(NotifierMetrics.OBJECT_NAME), name)).longValue();
+    }
+
+    private static int eventOf(String text) {
+        int start = text != null ? text.indexOf(EVENT_PREFIX) : -1;
+        if (start < 0) {
+            return -1;
+        }
+        int end = start += EVENT_PREFIX.length();
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end > start ? Integer.parseInt(text.substring(start, end)) : -1;
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static long perSecond(long count, long millis) {
+        return millis > 0 ? count * 1000 / millis : count;
+    }
+}
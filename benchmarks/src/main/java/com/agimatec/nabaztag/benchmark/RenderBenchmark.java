@@ -0,0 +1,57 @@
+package com.agimatec.nabaztag.benchmark;
+
+import com.agimatec.nabaztag.teamcity.BuildRenderContext;
+import com.agimatec.nabaztag.teamcity.MessageTemplate;
+import com.agimatec.nabaztag.teamcity.Placeholder;
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import jetbrains.buildServer.Build;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of a notification message for one recipient, as done by NabaztagNotificator.doNotification.
+ * The build values are resolved once per build, like the render context cache does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"Build #PROJECT# failed.",
+            "#USER# is assigned responsible for build #PROJECT#.",
+            "Build #PROJECT# failed, changes by #USER#: #COMMENT#"})
+    public String template;
+
+    @Param({"-1", "140"})
+    public int maxLength;
+
+    private PlaceholderValues values;
+
+    @Setup
+    public void setUp() {
+        Build build = SyntheticBuilds.build(1, 10, 3);
+        values = new BuildRenderContext(build, maxLength, true).toPlaceholderValues();
+        // resolve the build values up front, the benchmark measures the rendering
+        values.get(Placeholder.PROJECT);
+        values.get(Placeholder.USER);
+        values.get(Placeholder.COMMENT);
+    }
+
+    @Benchmark
+    public String render() {
+        return MessageTemplate.compile(template).render(values, "number ", maxLength, ", et cetera.");
+    }
+}
@@ -0,0 +1,140 @@
+package com.agimatec.nabaztag.benchmark;
+
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.users.NotificatorPropertyKey;
+import jetbrains.buildServer.users.PropertyKey;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserSet;
+import jetbrains.buildServer.vcs.VcsModification;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds, changes and users for the benchmarks. The TeamCity interfaces are implemented by dynamic proxies,
+ * which answer only the methods the plugin calls.
+ */
+final class SyntheticBuilds {
+    private static final String[] COMMENTS = {
+            "Fix NPE in #1234 when the rabbit has no token",
+            "Refactor the dispatcher, see review comments",
+            "Update French translations",
+            "Merge branch 'release-2.1' into trunk",
+            "Add test for ear positions & voices"};
+
+    private SyntheticBuilds() {
+    }
+
+    /**
+     * @param modifications The number of changes in the build
+     * @param committers    The number of distinct committers of the changes
+     * @return A build without registered committers, so the names are taken from the changes
+     */
+    static Build build(long buildId, int modifications, int committers) {
+        return runningBuild(buildId, "Buildbunny :: Core", modifications, committers);
+    }
+
+    /**
+     * @param fullName      The name of the build, which is spoken as #PROJECT#
+     * @param modifications The number of changes in the build
+     * @param committers    The number of distinct committers of the changes
+     * @return A running build without registered committers
+     */
+    static SRunningBuild runningBuild(final long buildId, final String fullName, int modifications, int committers) {
+        final List<VcsModification> changes = new ArrayList<VcsModification>(modifications);
+        for (int i = 0; i < modifications; i++) {
+            changes.add(modification(i, "developer" + (i % Math.max(1, committers)), COMMENTS[i % COMMENTS.length]));
+        }
+        final UserSet<SUser> noUsers = proxy(UserSet.class, (proxy, method, args) ->
+                "getUsers".equals(method.getName()) ? Collections.<SUser>emptySet() : defaultValue(method.getReturnType()));
+
+        return proxy(SRunningBuild.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getBuildId":
+                    return buildId;
+                case "getFullName":
+                    return fullName;
+                case "getBuildTypeId":
+                    return "bt" + buildId;
+                case "getContainingChanges":
+                    return changes;
+                case "getCommitters":
+                    return noUsers;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @param rabbitID The serial number of the user's rabbit
+     * @param token    The token of the user's rabbit
+     * @return A user who set only the rabbit in the Nabaztag notifier settings
+     */
+    static SUser user(final long id, String rabbitID, String token) {
+        final PropertyKey rabbitKey = new NotificatorPropertyKey("nabaztagNotifier", "rabbitId");
+        final PropertyKey tokenKey = new NotificatorPropertyKey("nabaztagNotifier", "rabbitToken");
+        return proxy(SUser.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "getUsername":
+                case "getName":
+                case "getDescriptiveName":
+                    return "user" + id;
+                case "getPropertyValue":
+                    return rabbitKey.equals(args[0]) ? rabbitID : tokenKey.equals(args[0]) ? token : null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return (int) (id ^ (id >>> 32));
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    static VcsModification modification(final long id, final String userName, final String description) {
+        return proxy(VcsModification.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "getUserName":
+                    return userName;
+                case "getDescription":
+                    return description;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<?> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SyntheticBuilds.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == Set.class) {
+            return Collections.emptySet();
+        }
+        if (type == List.class) {
+            return Collections.emptyList();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.agimatec.nabaztag.benchmark;
+
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the urls sent to the Nabaztag API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+    private Nabaztag nabaztag;
+    private NabaztagRequest request;
+
+    @Setup
+    public void setUp() {
+        nabaztag = new Nabaztag();
+        nabaztag.setRabbitID("0013D3849A5F");
+        nabaztag.setToken("1234567890");
+        nabaztag.setVoice(Nabaztag.VOICE_US_BILLYE);
+        nabaztag.setEars(Nabaztag.EARS_SAD);
+        nabaztag.setText("Build Buildbunny :: Core failed. Changes by developer1, developer2: Fix NPE in number 1234 & more");
+        request = nabaztag.toRequest();
+    }
+
+    @Benchmark
+    public String constructBaseUrl() {
+        return nabaztag.constructBaseUrl();
+    }
+
+    @Benchmark
+    public String constructUrl() {
+        return nabaztag.constructUrl();
+    }
+
+    @Benchmark
+    public String encodedUrl() {
+        return request.toEncodedUrl();
+    }
+}
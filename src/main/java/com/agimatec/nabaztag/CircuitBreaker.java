@@ -0,0 +1,106 @@
+package com.agimatec.nabaztag;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The circuit breaker of one rabbit. After a number of failed calls in a row the circuit opens and further
+ * calls fail fast instead of waiting for the timeouts of a dead endpoint again. When the open time elapsed,
+ * a single probe call is let through (half-open). Its success closes the circuit, its failure opens it again
+ * for twice as long, up to a maximum.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final RetryConfig config;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    // number of times the circuit opened without a successful call in between
+    private int consecutiveOpens;
+    private long openUntilMillis;
+    private boolean probing;
+
+    public CircuitBreaker(RetryConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * This method decides if a call may be made. In the half-open state only one probe call is allowed.
+     *
+     * @return true if the call may be made, false if it should fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntilMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        consecutiveOpens = 0;
+        probing = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probing = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= Math.max(1, config.getFailureThreshold())) {
+            consecutiveOpens++;
+            state = State.OPEN;
+            openUntilMillis = System.currentTimeMillis()
+                    + backoff(config.getOpenMillis(), config.getMaxOpenMillis(), consecutiveOpens);
+        }
+    }
+
+    /**
+     * @return The current state, an open circuit whose open time elapsed is reported as half-open
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntilMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return The time when the next probe call is let through, 0 if the circuit is not open
+     */
+    public synchronized long getOpenUntilMillis() {
+        return state == State.OPEN ? openUntilMillis : 0;
+    }
+
+    /**
+     * This method computes an exponentially growing delay with jitter, so callers which failed together do
+     * not retry together. The delay lies between half and all of base * 2^(attempt - 1), capped at max.
+     *
+     * @param baseMillis The delay of the first attempt
+     * @param maxMillis  The upper limit of the delay
+     * @param attempt    The attempt, starting with 1
+     * @return The delay in milliseconds
+     */
+    public static long backoff(long baseMillis, long maxMillis, int attempt) {
+        long delay = Math.min(maxMillis, baseMillis << Math.min(30, Math.max(0, attempt - 1)));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
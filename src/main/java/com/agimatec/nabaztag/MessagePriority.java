@@ -0,0 +1,15 @@
+package com.agimatec.nabaztag;
+
+/**
+ * How urgent a message is. The dispatcher sends the urgent messages of a rabbit before its normal ones.
+ */
+public enum MessagePriority {
+    /**
+     * Bad news like a failed or hanging build
+     */
+    URGENT,
+    /**
+     * Information like a started or successful build
+     */
+    NORMAL
+}
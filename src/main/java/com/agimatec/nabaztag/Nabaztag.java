@@ -1,21 +1,12 @@
 package com.agimatec.nabaztag;
 
-import java.io.DataInputStream;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * User: Simon Tiffert
  * Copyright: Agimatec GmbH 2008
  */
 public class Nabaztag {
-    // API helper
-    private static final String API_URL = "http://api.nabaztag.com/vl/FR/api.jsp?sn=";
-    private static final String TIME_TO_LIVE_BIT = "&ttlive=";
-    private static final String TOKEN_BIT = "&token=";
-    private static final String TEXT_BIT = "&tts=";
-    private static final String VOICE_BIT = "&voice=";
-    private static final String ACTION_BIT = "&action=";
-
     // Pre-defined ear commands
     public static final String EARS_HAPPY = "&posright=0&posleft=0";
     public static final String EARS_SAD = "&posright=10&posleft=10";
@@ -33,6 +24,8 @@ public class Nabaztag {
     public static final String ACTION_SUPPORTED_VOICES = "9";
     public static final String ACTION_SELECTED_LANGUAGES = "11";
 
+    // url of the API, the Nabaztag server if not set
+    private String apiUrl;
     // your rabbit id
     private String rabbitID;
     // your rabbit token
@@ -47,107 +40,53 @@ public class Nabaztag {
     private String voice;
     // action to fetch data like supported voices or selected languages
     private String action;
+    // transport used for the calls, the shared default transport if not set
+    private NabaztagTransport transport;
 
 
     /**
      * This method sends the call to the Nabaztag
-     */
-    public void publish() {
-        call(constructUrl());
-    }
-
-    /**
-     * This methods constructs the url from the given fields
      *
-     * @return complete URL to call the Nabaztag
+     * @return The result of the call
      */
-    public String constructUrl() {
-        StringBuffer url = new StringBuffer();
-
-        url.append(constructBaseUrl());
-
-        if (ears != null) {
-            url.append(ears);
-        }
-        if (text != null) {
-            url.append(TEXT_BIT);
-            url.append(text);
-        }
-        if (voice != null) {
-            url.append(VOICE_BIT);
-            url.append(voice);
-        }
-        if (action != null) {
-            url.append(ACTION_BIT);
-            url.append(action);
-        }
-        return url.toString();
+    public PublishResult publish() {
+        return getTransport().getPublisher().publish(toRequest());
     }
 
     /**
-     * This method creates a base url, which is the same for all Nabaztag actions
+     * This method sends the call to the Nabaztag without waiting for the response
      *
-     * @return A base URL which could completed by the given fields in constructURL
+     * @return A future which is completed with the result when the call finished
      */
-    public String constructBaseUrl() {
-        StringBuffer baseUrl = new StringBuffer();
-        baseUrl.append(API_URL);
-        baseUrl.append(rabbitID);
-        baseUrl.append(TOKEN_BIT);
-        baseUrl.append(token);
-
-        if (timeToLive == null) {
-            timeToLive = "600";
-        }
-
-        baseUrl.append(TIME_TO_LIVE_BIT);
-        baseUrl.append(timeToLive);
-
-        return baseUrl.toString();
+    public CompletableFuture<PublishResult> publishAsync() {
+        return getTransport().getPublisher().publishAsync(toRequest());
     }
 
     /**
-     * This method makes the call to the Nabaztag with the given url. It also displays the result of the Nabaztag
+     * This method creates an immutable request from the given fields, which can be handed to other threads
      *
-     * @param urlString A constructed URL with Nabaztag actions
+     * @return The request to the Nabaztag
      */
-    private void call(String urlString) {
-        URL url;
-
-        debug("-- BEGIN PUBLISH --");
-        try {
-            url = new URL(urlString.replaceAll(" ", "%20"));
-            debug("-- NABAZTAG PUBLISH: " + url.toString() + "--");
-            DataInputStream dis = new DataInputStream(url.openStream());
-            int i;
-            while ((i = dis.read()) != -1) {
-                System.out.print((char) i);
-            }
-            dis.close();
-        } catch (Exception e) {
-            error("-- PUBLISH URL EXCEPTION --", e);
-        }
-        debug("-- END PUBLISH --");
+    public NabaztagRequest toRequest() {
+        return new NabaztagRequest(new RabbitEndpoint(apiUrl, rabbitID, token, timeToLive), text, voice, ears, action);
     }
 
     /**
-     * This method is used for logging errors
+     * This methods constructs the url from the given fields
      *
-     * @param error     The error message
-     * @param exception The thrown exception
+     * @return complete URL to call the Nabaztag
      */
-    private void error(String error, Exception exception) {
-        System.err.println(error);
-        if (exception != null) exception.printStackTrace();
+    public String constructUrl() {
+        return toRequest().toUrl();
     }
 
     /**
-     * This method is used for logging
+     * This method creates a base url, which is the same for all Nabaztag actions
      *
-     * @param message The message to be logged
+     * @return A base URL which could completed by the given fields in constructURL
      */
-    private void debug(String message) {
-        System.out.println(message);
+    public String constructBaseUrl() {
+        return new RabbitEndpoint(apiUrl, rabbitID, token, timeToLive).getBaseUrl();
     }
 
     public String getEars() {
@@ -166,6 +105,21 @@ public class Nabaztag {
         this.voice = voice;
     }
 
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * The url of the API without parameters, e.g. a local stand-in for tests
+     */
+    public void setApiUrl(String apiUrl) {
+        this.apiUrl = apiUrl;
+    }
+
+    public String getRabbitID() {
+        return rabbitID;
+    }
+
     /**
      * The id of the rabbit you wish to talk to
      */
@@ -173,6 +127,10 @@ public class Nabaztag {
         this.rabbitID = ID;
     }
 
+    public String getToken() {
+        return token;
+    }
+
     /**
      * The token that allows you to talk to bunnies
      */
@@ -196,6 +154,17 @@ public class Nabaztag {
         this.action = action;
     }
 
+    public NabaztagTransport getTransport() {
+        return transport != null ? transport : NabaztagTransport.getDefault();
+    }
+
+    /**
+     * The transport to make the calls with, allows to share timeouts and connections
+     */
+    public void setTransport(NabaztagTransport transport) {
+        this.transport = transport;
+    }
+
     public String getTimeToLive() {
         return timeToLive;
     }
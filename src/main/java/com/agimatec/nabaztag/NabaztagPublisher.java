@@ -0,0 +1,211 @@
+package com.agimatec.nabaztag;
+
+import com.agimatec.nabaztag.log.Log;
+import com.agimatec.nabaztag.metrics.NotifierMetrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This publisher sends {@link NabaztagRequest}s to the Nabaztag API through a {@link NabaztagTransport}.
+ * Failed and timed out calls are retried with a jittered exponential backoff. Every rabbit has its own
+ * {@link CircuitBreaker}, so a dead rabbit or API fails fast instead of tying up threads with timeouts.
+ * <p/>
+ * A caller which must not be blocked during the backoff, like a dispatcher worker, hands over a timer: the
+ * retries are then scheduled on the timer and made on transport threads.
+ */
+public class NabaztagPublisher {
+    private static final Log LOG = Log.get(NabaztagPublisher.class);
+
+    private final NabaztagTransport transport;
+    private final RetryConfig config;
+    // null if no metrics are recorded
+    private final NotifierMetrics metrics;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public NabaztagPublisher(NabaztagTransport transport) {
+        this(transport, new RetryConfig());
+    }
+
+    public NabaztagPublisher(NabaztagTransport transport, RetryConfig config) {
+        this(transport, config, null);
+    }
+
+    public NabaztagPublisher(NabaztagTransport transport, RetryConfig config, NotifierMetrics metrics) {
+        this.transport = transport;
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    /**
+     * This method makes the call to the Nabaztag and waits for the response, including the retries.
+     * Failures are logged, not thrown.
+     *
+     * @param request The request to be sent
+     * @return The result of the last call
+     */
+    public PublishResult publish(NabaztagRequest request) {
+        CircuitBreaker breaker = getCircuitBreaker(request.getRabbitID());
+        if (!breaker.allowRequest()) {
+            LOG.debug(() -> "-- NABAZTAG CIRCUIT OPEN: " + request.getRabbitID() + "--");
+            return record(request, PublishResult.circuitOpen());
+        }
+
+        final String url = request.toEncodedUrl();
+        LOG.debug(() -> "-- NABAZTAG PUBLISH: " + url + "--");
+        PublishResult result = null;
+        try {
+            result = record(request, transport.call(url));
+            for (int attempt = 1; result.isRetryable() && attempt <= config.getMaxRetries(); attempt++) {
+                long delay = retryDelay(result, attempt);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                result = record(request, transport.call(url));
+            }
+        } finally {
+            // an exception must not leave the circuit waiting for the result of its probe
+            settle(breaker, result);
+        }
+        return log(request, result);
+    }
+
+    /**
+     * This method makes the first call on the calling thread and returns without waiting for the retries. They
+     * are scheduled on the given timer and made on transport threads.
+     *
+     * @param request    The request to be sent
+     * @param retryTimer The timer on which the retries wait for their backoff
+     * @return A future which is completed with the result of the last call
+     */
+    public CompletableFuture<PublishResult> publish(NabaztagRequest request, ScheduledExecutorService retryTimer) {
+        CircuitBreaker breaker = getCircuitBreaker(request.getRabbitID());
+        if (!breaker.allowRequest()) {
+            LOG.debug(() -> "-- NABAZTAG CIRCUIT OPEN: " + request.getRabbitID() + "--");
+            return CompletableFuture.completedFuture(record(request, PublishResult.circuitOpen()));
+        }
+
+        final String url = request.toEncodedUrl();
+        LOG.debug(() -> "-- NABAZTAG PUBLISH: " + url + "--");
+        CompletableFuture<PublishResult> future = new CompletableFuture<PublishResult>();
+        attempt(request, url, breaker, 0, retryTimer, future);
+        return future;
+    }
+
+    /**
+     * This method makes one call and schedules the next attempt if the call may be retried
+     */
+    private void attempt(final NabaztagRequest request, final String url, final CircuitBreaker breaker, final int attempt,
+                         final ScheduledExecutorService retryTimer, final CompletableFuture<PublishResult> future) {
+        PublishResult result;
+        try {
+            result = record(request, transport.call(url));
+        } catch (RuntimeException e) {
+            settle(breaker, null);
+            future.completeExceptionally(e);
+            return;
+        }
+
+        if (result.isRetryable() && attempt < config.getMaxRetries()) {
+            final PublishResult last = result;
+            try {
+                retryTimer.schedule(() -> {
+                    try {
+                        transport.supplyAsync(() -> {
+                            attempt(request, url, breaker, attempt + 1, retryTimer, future);
+                            return null;
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the transport was closed in the meantime
+                        complete(request, breaker, last, future);
+                    }
+                }, retryDelay(result, attempt + 1), TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                // the timer was shut down, the last result is final
+            }
+        }
+        complete(request, breaker, result, future);
+    }
+
+    /**
+     * This method makes the call to the Nabaztag without waiting for the response
+     *
+     * @param request The request to be sent
+     * @return A future which is completed with the result when the call finished
+     */
+    public CompletableFuture<PublishResult> publishAsync(final NabaztagRequest request) {
+        return transport.supplyAsync(() -> publish(request));
+    }
+
+    /**
+     * @param rabbitID The serial number of the rabbit
+     * @return The circuit breaker of the rabbit
+     */
+    public CircuitBreaker getCircuitBreaker(String rabbitID) {
+        return breakers.computeIfAbsent(String.valueOf(rabbitID), id -> new CircuitBreaker(config));
+    }
+
+    /**
+     * @return The state of the circuit breakers of all rabbits which were called, by serial number
+     */
+    public Map<String, CircuitBreaker.State> getCircuitStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<String, CircuitBreaker.State>();
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return states;
+    }
+
+    private void complete(NabaztagRequest request, CircuitBreaker breaker, PublishResult result, CompletableFuture<PublishResult> future) {
+        settle(breaker, result);
+        future.complete(log(request, result));
+    }
+
+    private long retryDelay(PublishResult result, int attempt) {
+        long delay = CircuitBreaker.backoff(config.getBaseDelayMillis(), config.getMaxDelayMillis(), attempt);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("-- NABAZTAG RETRY " + attempt + " IN " + delay + " ms: " + result + "--");
+        }
+        return delay;
+    }
+
+    /**
+     * This method closes or opens the circuit with the result of a publish, null if the publish failed with an
+     * exception
+     */
+    private static void settle(CircuitBreaker breaker, PublishResult result) {
+        if (result != null && result.isSuccess()) {
+            breaker.recordSuccess();
+        } else {
+            breaker.recordFailure();
+        }
+    }
+
+    private PublishResult record(NabaztagRequest request, PublishResult result) {
+        if (metrics != null) {
+            metrics.recordPublish(request.getRabbitID(), result);
+        }
+        return result;
+    }
+
+    private PublishResult log(NabaztagRequest request, final PublishResult result) {
+        if (result.isSuccess()) {
+            LOG.debug(() -> "-- NABAZTAG RESULT: " + result + "--");
+        } else {
+            // the latency is left out, so repeated failures are recognised as the same error
+            String code = result.getCode() != null ? " " + result.getCode() : "";
+            LOG.errorLimited(request.getRabbitID(), "-- PUBLISH FAILED: " + result.getStatus() + code + " --", result.getFailure());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,195 @@
+package com.agimatec.nabaztag;
+
+/**
+ * An immutable request to a rabbit. Unlike the {@link Nabaztag} bean it can be safely handed between threads,
+ * e.g. from the TeamCity event thread to the dispatcher.
+ */
+public final class NabaztagRequest {
+    static final String TEXT_BIT = "&tts=";
+    static final String VOICE_BIT = "&voice=";
+    static final String ACTION_BIT = "&action=";
+    // buffers larger than this are not kept for reuse
+    private static final int MAX_BUFFER_CAPACITY = 8192;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final RabbitEndpoint endpoint;
+    // text to be spoken
+    private final String text;
+    // voice of the rabbit
+    private final String voice;
+    // ear position, one of the ear commands of Nabaztag
+    private final String ears;
+    // action to fetch data like supported voices or selected languages
+    private final String action;
+    // when the message was created, its time to live starts here
+    private final long createdMillis;
+    private final MessagePriority priority;
+    // what the message is about, e.g. a build configuration, a newer message about it makes this one obsolete
+    private final String topic;
+
+    public NabaztagRequest(RabbitEndpoint endpoint, String text, String voice, String ears, String action) {
+        this(endpoint, text, voice, ears, action, System.currentTimeMillis());
+    }
+
+    public NabaztagRequest(RabbitEndpoint endpoint, String text, String voice, String ears, String action, long createdMillis) {
+        this(endpoint, text, voice, ears, action, createdMillis, MessagePriority.NORMAL, null);
+    }
+
+    /**
+     * @param priority How urgent the message is, null for {@link MessagePriority#NORMAL}
+     * @param topic    What the message is about, null if it never becomes obsolete
+     */
+    public NabaztagRequest(RabbitEndpoint endpoint, String text, String voice, String ears, String action, long createdMillis,
+                           MessagePriority priority, String topic) {
+        this.endpoint = endpoint;
+        this.text = text;
+        this.voice = voice;
+        this.ears = ears;
+        this.action = action;
+        this.createdMillis = createdMillis;
+        this.priority = priority != null ? priority : MessagePriority.NORMAL;
+        this.topic = topic;
+    }
+
+    /**
+     * This method constructs the url of the request. The parameters are not encoded.
+     *
+     * @return complete URL to call the Nabaztag
+     */
+    public String toUrl() {
+        String baseUrl = endpoint.getBaseUrl();
+        StringBuilder url = new StringBuilder(baseUrl.length() + length(ears)
+                + (text != null ? TEXT_BIT.length() + text.length() : 0)
+                + (voice != null ? VOICE_BIT.length() + voice.length() : 0)
+                + (action != null ? ACTION_BIT.length() + action.length() : 0));
+
+        url.append(baseUrl);
+        if (ears != null) {
+            url.append(ears);
+        }
+        if (text != null) {
+            url.append(TEXT_BIT).append(text);
+        }
+        if (voice != null) {
+            url.append(VOICE_BIT).append(voice);
+        }
+        if (action != null) {
+            url.append(ACTION_BIT).append(action);
+        }
+        return url.toString();
+    }
+
+    /**
+     * This method constructs the url which is sent to the Nabaztag API. Text, voice and ears are percent-encoded
+     * in one pass into a buffer which is reused by the calling thread.
+     *
+     * @return complete, encoded URL to call the Nabaztag
+     */
+    public String toEncodedUrl() {
+        StringBuilder url = BUFFER.get();
+        url.setLength(0);
+
+        url.append(endpoint.getEncodedBaseUrl());
+        if (ears != null) {
+            url.append(PercentEncoder.encodeQueryCached(ears));
+        }
+        if (text != null) {
+            url.append(TEXT_BIT);
+            PercentEncoder.encode(text, url);
+        }
+        if (voice != null) {
+            url.append(VOICE_BIT).append(PercentEncoder.encodeCached(voice));
+        }
+        if (action != null) {
+            url.append(ACTION_BIT).append(PercentEncoder.encodeCached(action));
+        }
+
+        String result = url.toString();
+        if (url.capacity() > MAX_BUFFER_CAPACITY) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * @param nowMillis The current time
+     * @return The time left until the time to live of the message elapses, negative if it elapsed
+     */
+    public long getRemainingMillis(long nowMillis) {
+        return createdMillis + endpoint.getTimeToLiveMillis() - nowMillis;
+    }
+
+    /**
+     * @param nowMillis The current time
+     * @return true if the message is older than its time to live and would not be played by the rabbit anymore
+     */
+    public boolean isExpired(long nowMillis) {
+        return getRemainingMillis(nowMillis) < 0;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    public RabbitEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public String getRabbitID() {
+        return endpoint.getRabbitID();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public String getEars() {
+        return ears;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public MessagePriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return What the message is about, null if it never becomes obsolete
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return A copy of this request speaking another text
+     */
+    public NabaztagRequest withText(String text) {
+        return new NabaztagRequest(endpoint, text, voice, ears, action, createdMillis, priority, topic);
+    }
+
+    /**
+     * @return A copy of this request with other ears
+     */
+    public NabaztagRequest withEars(String ears) {
+        return new NabaztagRequest(endpoint, text, voice, ears, action, createdMillis, priority, topic);
+    }
+
+    /**
+     * @param priority How urgent the message is
+     * @param topic    What the message is about, a newer message about the same topic makes this one obsolete
+     * @return A copy of this request with another priority and topic
+     */
+    public NabaztagRequest withPriority(MessagePriority priority, String topic) {
+        return new NabaztagRequest(endpoint, text, voice, ears, action, createdMillis, priority, topic);
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
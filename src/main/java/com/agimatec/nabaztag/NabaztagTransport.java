@@ -0,0 +1,272 @@
+package com.agimatec.nabaztag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * This transport makes the HTTP calls to the Nabaztag API. Every call has a connect, a read and a total
+ * deadline, so a hung endpoint can never pin a thread. Responses are always read completely and the
+ * streams closed, which lets the JDK keep the connection alive and reuse it for the next call to the same
+ * host. The number of concurrent connections per host is limited to the size of that keep-alive cache.
+ * <p/>
+ * Asynchronous calls run on as many transport threads as there are connections to one host, further calls wait
+ * in the queue of the pool instead of on a thread blocked for a connection. Idle threads end after a while.
+ * <p/>
+ * A transport is thread-safe and meant to be shared by all Nabaztag instances.
+ */
+public class NabaztagTransport {
+    private static final int BUFFER_SIZE = 1024;
+    // how long an idle transport thread is kept
+    private static final long IDLE_THREAD_MILLIS = 60000;
+
+    private static NabaztagTransport defaultTransport;
+
+    private final TransportConfig config;
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final ThreadPoolExecutor executor;
+    // the timeouts of the calls which ended in time are removed at once, not when they would have elapsed
+    private final ScheduledThreadPoolExecutor watchdog;
+    // created when a Nabaztag instance publishes through this transport for the first time
+    private NabaztagPublisher publisher;
+
+    public NabaztagTransport(TransportConfig config) {
+        this.config = config;
+        int threads = Math.max(1, config.getMaxConnectionsPerHost());
+        this.executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreads("buildbunny-transport-"));
+        executor.allowCoreThreadTimeOut(true);
+        this.watchdog = new ScheduledThreadPoolExecutor(1, daemonThreads("buildbunny-transport-watchdog-"));
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The transport used by Nabaztag instances which were not given one explicitly
+     *
+     * @return A shared transport with the default configuration
+     */
+    public static synchronized NabaztagTransport getDefault() {
+        if (defaultTransport == null) {
+            defaultTransport = new NabaztagTransport(new TransportConfig());
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * The publisher used by Nabaztag instances, so all instances calling a rabbit share its circuit breaker
+     *
+     * @return A publisher with the default retry configuration
+     */
+    public synchronized NabaztagPublisher getPublisher() {
+        if (publisher == null) {
+            publisher = new NabaztagPublisher(this);
+        }
+        return publisher;
+    }
+
+    /**
+     * This method calls the given url and waits for the response
+     *
+     * @param urlString The complete, encoded url
+     * @return The body of the response
+     * @throws IOException if the call failed or one of the deadlines elapsed
+     */
+    public String get(String urlString) throws IOException {
+        return execute(urlString, NabaztagTransport::drain);
+    }
+
+    /**
+     * This method calls the given url and parses the answer of the Nabaztag API while it arrives
+     *
+     * @param urlString The complete, encoded url
+     * @return The result of the call, failures are returned and not thrown
+     */
+    public PublishResult call(String urlString) {
+        long start = System.nanoTime();
+        try {
+            ResponseParser parser = fetch(urlString);
+            return parser.toResult(elapsedMillis(start));
+        } catch (Exception e) {
+            return PublishResult.failed(e, elapsedMillis(start));
+        }
+    }
+
+    /**
+     * This method calls the given url and parses the answer of the Nabaztag API, e.g. to read the voices
+     * listed by an action
+     *
+     * @param urlString The complete, encoded url
+     * @return The parsed answer
+     * @throws IOException if the call failed or one of the deadlines elapsed
+     */
+    public ResponseParser fetch(String urlString) throws IOException {
+        return execute(urlString, ResponseParser::parse);
+    }
+
+    /**
+     * This method calls the given url on a transport thread and parses the answer of the Nabaztag API
+     *
+     * @param urlString The complete, encoded url
+     * @return A future completed with the result of the call, it never completes exceptionally
+     */
+    public CompletableFuture<PublishResult> callAsync(final String urlString) {
+        return supplyAsync(() -> call(urlString));
+    }
+
+    /**
+     * This method runs a blocking task, which makes calls to the Nabaztag API, on a transport thread
+     *
+     * @param task The task
+     * @return A future completed with the result of the task
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private <T> T execute(String urlString, ResponseReader<T> reader) throws IOException {
+        long deadline = System.currentTimeMillis() + config.getTotalTimeoutMillis();
+        URL url = new URL(urlString);
+
+        Semaphore permits = permitsFor(url);
+        try {
+            if (!permits.tryAcquire(config.getTotalTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("No free connection to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+
+        try {
+            return exchange(url, deadline, reader);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * This method calls the given url on a transport thread
+     *
+     * @param urlString The complete, encoded url
+     * @return A future completed with the body of the response, or exceptionally if the call failed
+     */
+    public CompletableFuture<String> getAsync(final String urlString) {
+        return supplyAsync(() -> {
+            try {
+                return get(urlString);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * This method stops the transport threads. Calls which are running are not interrupted.
+     */
+    public void close() {
+        executor.shutdown();
+        watchdog.shutdownNow();
+    }
+
+    private <T> T exchange(URL url, long deadline, ResponseReader<T> reader) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(config.getConnectTimeoutMillis());
+        connection.setReadTimeout(config.getReadTimeoutMillis());
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", "keep-alive");
+
+        // the watchdog drops the connection when the total deadline elapses
+        final AtomicBoolean expired = new AtomicBoolean();
+        long remaining = Math.max(1, deadline - System.currentTimeMillis());
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            expired.set(true);
+            connection.disconnect();
+        }, remaining, TimeUnit.MILLISECONDS);
+
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                drain(connection.getErrorStream());
+                throw new IOException("Nabaztag API returned HTTP " + status);
+            }
+            return reader.read(connection.getInputStream());
+        } catch (IOException e) {
+            if (expired.get()) {
+                throw new SocketTimeoutException("Call exceeded " + config.getTotalTimeoutMillis() + " ms");
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Reads a stream completely and closes it, so the underlying connection can be kept alive
+     */
+    private static String drain(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private Semaphore permitsFor(URL url) {
+        return hostPermits.computeIfAbsent(url.getHost() + ":" + url.getPort(),
+                host -> new Semaphore(Math.max(1, config.getMaxConnectionsPerHost())));
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Consumes the body of a successful response
+     */
+    private interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+}
@@ -0,0 +1,125 @@
+package com.agimatec.nabaztag;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This encoder percent-encodes the parameters of a Nabaztag url as UTF-8 in a single pass. Everything except
+ * the unreserved characters of RFC 3986 is encoded, so '&', '?', '%', '#' and umlauts in a commit message reach
+ * the rabbit as they were written. A space becomes %20.
+ * <p/>
+ * Static parts like voice names and ear commands come from a small set of values, their encoded form is cached.
+ */
+public final class PercentEncoder {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    // the caches are cleared when they grow beyond this, there are only a few voices and ear commands
+    private static final int MAX_CACHED = 256;
+
+    private static final ConcurrentMap<String, String> VALUES = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentMap<String, String> QUERIES = new ConcurrentHashMap<String, String>();
+
+    private PercentEncoder() {
+    }
+
+    /**
+     * @param value The parameter value
+     * @return The encoded value
+     */
+    public static String encode(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 16);
+        encode(value, out);
+        return out.toString();
+    }
+
+    /**
+     * This method encodes a parameter value and appends it to the given buffer
+     *
+     * @param value The parameter value
+     * @param out   The buffer to append to
+     */
+    public static void encode(CharSequence value, StringBuilder out) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                out.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(out, c);
+            } else if (c < 0x800) {
+                appendEscaped(out, 0xC0 | (c >> 6));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(out, 0xF0 | (codePoint >> 18));
+                appendEscaped(out, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (codePoint & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) {
+                    // a lone surrogate can not be encoded, send the replacement character instead
+                    c = '\uFFFD';
+                }
+                appendEscaped(out, 0xE0 | (c >> 12));
+                appendEscaped(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * This method encodes a value which is used over and over again, like a voice name
+     *
+     * @param value The parameter value
+     * @return The encoded value, from the cache if possible
+     */
+    public static String encodeCached(String value) {
+        String encoded = VALUES.get(value);
+        if (encoded == null) {
+            if (VALUES.size() >= MAX_CACHED) {
+                VALUES.clear();
+            }
+            encoded = encode(value);
+            VALUES.put(value, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * This method encodes the names and values of a query fragment like the ear commands "&posright=0&posleft=0",
+     * keeping the '&' and '=' separators
+     *
+     * @param fragment The query fragment
+     * @return The encoded fragment, from the cache if possible
+     */
+    public static String encodeQueryCached(String fragment) {
+        String encoded = QUERIES.get(fragment);
+        if (encoded == null) {
+            if (QUERIES.size() >= MAX_CACHED) {
+                QUERIES.clear();
+            }
+            StringBuilder out = new StringBuilder(fragment.length() + 16);
+            int start = 0;
+            for (int i = 0; i < fragment.length(); i++) {
+                char c = fragment.charAt(i);
+                if (c == '&' || c == '=') {
+                    encode(fragment.subSequence(start, i), out);
+                    out.append(c);
+                    start = i + 1;
+                }
+            }
+            encode(fragment.subSequence(start, fragment.length()), out);
+            encoded = out.toString();
+            QUERIES.put(fragment, encoded);
+        }
+        return encoded;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~';
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+        out.append('%').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+    }
+}
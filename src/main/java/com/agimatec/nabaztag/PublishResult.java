@@ -0,0 +1,125 @@
+package com.agimatec.nabaztag;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The outcome of one call to the Nabaztag API. The API answers HTTP 200 for almost everything, the real
+ * result is the code in the &lt;message&gt; element of the response, e.g. TTSSENT or NOGOODTOKENORSERIAL.
+ */
+public final class PublishResult {
+    /**
+     * How a call ended
+     */
+    public enum Status {
+        // the API accepted the message
+        SENT,
+        // the API answered with an error code, e.g. a wrong token
+        REJECTED,
+        // the call failed or the response could not be understood
+        FAILED,
+        // one of the transport deadlines elapsed
+        TIMED_OUT,
+        // the call was not made, as the circuit breaker of the rabbit is open
+        CIRCUIT_OPEN
+    }
+
+    // codes of the Nabaztag API which mean the message did not reach the rabbit
+    private static final Set<String> ERROR_CODES = new HashSet<String>(Arrays.asList(
+            "NOGOODTOKENORSERIAL", "ABUSESENDING", "NOCORRECTPARAMETERS", "NOTV2RABBIT", "NOMESSAGE"));
+
+    private final Status status;
+    // the code of the <message> element, null if there was no response
+    private final String code;
+    // the text of the <comment> element, or the failure description
+    private final String comment;
+    private final long latencyMillis;
+    private final Throwable failure;
+
+    private PublishResult(Status status, String code, String comment, long latencyMillis, Throwable failure) {
+        this.status = status;
+        this.code = code;
+        this.comment = comment;
+        this.latencyMillis = latencyMillis;
+        this.failure = failure;
+    }
+
+    /**
+     * This method creates the result of a call which was answered by the API
+     *
+     * @param code          The content of the &lt;message&gt; element, null if there was none
+     * @param comment       The content of the &lt;comment&gt; element
+     * @param latencyMillis The duration of the call
+     * @return The result
+     */
+    public static PublishResult fromResponse(String code, String comment, long latencyMillis) {
+        Status status;
+        if (code == null || code.length() == 0) {
+            status = Status.FAILED;
+        } else if (ERROR_CODES.contains(code) || code.endsWith("NOTSENT")) {
+            status = Status.REJECTED;
+        } else {
+            status = Status.SENT;
+        }
+        return new PublishResult(status, code, comment, latencyMillis, null);
+    }
+
+    /**
+     * This method creates the result of a call which did not get an answer
+     *
+     * @param failure       The exception of the call
+     * @param latencyMillis The time until the call failed
+     * @return The result
+     */
+    public static PublishResult failed(Throwable failure, long latencyMillis) {
+        Status status = failure instanceof SocketTimeoutException ? Status.TIMED_OUT : Status.FAILED;
+        return new PublishResult(status, null, String.valueOf(failure.getMessage()), latencyMillis, failure);
+    }
+
+    /**
+     * This method creates the result of a call which was not made, as the circuit of the rabbit is open
+     *
+     * @return The result
+     */
+    public static PublishResult circuitOpen() {
+        return new PublishResult(Status.CIRCUIT_OPEN, null, "circuit open", 0, null);
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SENT;
+    }
+
+    /**
+     * @return true if the call may succeed when it is repeated
+     */
+    public boolean isRetryable() {
+        return status == Status.FAILED || status == Status.TIMED_OUT;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public String toString() {
+        return status + (code != null ? " " + code : "") + (comment != null ? " (" + comment + ")" : "")
+                + " in " + latencyMillis + " ms";
+    }
+}
@@ -0,0 +1,127 @@
+package com.agimatec.nabaztag;
+
+/**
+ * The part of the API url which identifies a rabbit: API url, serial number, token and time to live. It is built
+ * once per rabbit and reused as the prefix of every request to that rabbit. Instances are immutable.
+ */
+public final class RabbitEndpoint {
+    /**
+     * The url of the Nabaztag API, if none is given
+     */
+    public static final String DEFAULT_API_URL = "http://api.nabaztag.com/vl/FR/api.jsp";
+
+    static final String SERIAL_BIT = "?sn=";
+    static final String TIME_TO_LIVE_BIT = "&ttlive=";
+    static final String TOKEN_BIT = "&token=";
+
+    /**
+     * The time to live of a message in seconds, if none is given
+     */
+    public static final String DEFAULT_TIME_TO_LIVE = "600";
+
+    private final String apiUrl;
+    private final String rabbitID;
+    private final String token;
+    private final String timeToLive;
+    private final long timeToLiveMillis;
+    private final String baseUrl;
+    private final String encodedBaseUrl;
+
+    /**
+     * @param rabbitID   The serial number of the rabbit
+     * @param token      The token that allows you to talk to the rabbit
+     * @param timeToLive The time to live of the messages in seconds, null for the default
+     */
+    public RabbitEndpoint(String rabbitID, String token, String timeToLive) {
+        this(null, rabbitID, token, timeToLive);
+    }
+
+    /**
+     * @param apiUrl     The url of the API without parameters, e.g. a local stand-in, null for the default
+     * @param rabbitID   The serial number of the rabbit
+     * @param token      The token that allows you to talk to the rabbit
+     * @param timeToLive The time to live of the messages in seconds, null for the default
+     */
+    public RabbitEndpoint(String apiUrl, String rabbitID, String token, String timeToLive) {
+        this.apiUrl = apiUrl != null ? apiUrl : DEFAULT_API_URL;
+        this.rabbitID = rabbitID;
+        this.token = token;
+        this.timeToLive = timeToLive != null ? timeToLive : DEFAULT_TIME_TO_LIVE;
+        this.timeToLiveMillis = parseSeconds(this.timeToLive) * 1000L;
+
+        String id = String.valueOf(rabbitID);
+        String tokenText = String.valueOf(token);
+        this.baseUrl = new StringBuilder(this.apiUrl.length() + SERIAL_BIT.length() + id.length() + TOKEN_BIT.length() + tokenText.length()
+                + TIME_TO_LIVE_BIT.length() + this.timeToLive.length())
+                .append(this.apiUrl).append(SERIAL_BIT).append(id)
+                .append(TOKEN_BIT).append(tokenText)
+                .append(TIME_TO_LIVE_BIT).append(this.timeToLive)
+                .toString();
+
+        StringBuilder encoded = new StringBuilder(baseUrl.length() + 16).append(this.apiUrl).append(SERIAL_BIT);
+        PercentEncoder.encode(id, encoded);
+        encoded.append(TOKEN_BIT);
+        PercentEncoder.encode(tokenText, encoded);
+        encoded.append(TIME_TO_LIVE_BIT);
+        PercentEncoder.encode(this.timeToLive, encoded);
+        this.encodedBaseUrl = encoded.toString();
+    }
+
+    /**
+     * @return The url of the API without parameters
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public String getRabbitID() {
+        return rabbitID;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @return The time to live of the messages in milliseconds
+     */
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * @return The url of this rabbit without any action, e.g. http://api.nabaztag.com/vl/FR/api.jsp?sn=1&token=2&ttlive=600
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return The base url with percent-encoded parameters
+     */
+    public String getEncodedBaseUrl() {
+        return encodedBaseUrl;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof RabbitEndpoint && baseUrl.equals(((RabbitEndpoint) o).baseUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return baseUrl.hashCode();
+    }
+
+    private static long parseSeconds(String seconds) {
+        try {
+            return Long.parseLong(seconds.trim());
+        } catch (NumberFormatException e) {
+            return Long.parseLong(DEFAULT_TIME_TO_LIVE);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.agimatec.nabaztag;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This parser reads the XML answer of the Nabaztag API, e.g.
+ * <pre>&lt;rsp&gt;&lt;message&gt;TTSSENT&lt;/message&gt;&lt;comment&gt;Your text has been sent&lt;/comment&gt;&lt;/rsp&gt;</pre>
+ * It is fed in chunks as the response arrives and keeps only the content of the first &lt;message&gt; and
+ * &lt;comment&gt; elements and the command attributes of &lt;voice&gt; elements, which list the supported
+ * voices, e.g. <pre>&lt;rsp&gt;&lt;voice lang="us" command="US-Bethany"/&gt;&lt;/rsp&gt;</pre>
+ * The rest of the document is skipped without building strings.
+ */
+public final class ResponseParser {
+    private static final int BUFFER_SIZE = 1024;
+    // longer element contents are cut, the API codes and comments are short
+    private static final int MAX_CONTENT_LENGTH = 512;
+    // a rabbit supports a few dozen voices
+    private static final int MAX_VOICES = 256;
+    private static final String COMMAND_ATTRIBUTE = "command=\"";
+
+    private final StringBuilder tag = new StringBuilder();
+    private boolean inTag;
+    // the content of the element being captured, null if the current element is not interesting
+    private StringBuilder content;
+    private String contentElement;
+    private String message;
+    private String comment;
+    private List<String> voices;
+
+    /**
+     * This method reads a response completely and parses it
+     *
+     * @param in The response body, which is closed afterwards
+     * @return The parser with the result
+     * @throws IOException if reading the response failed
+     */
+    public static ResponseParser parse(InputStream in) throws IOException {
+        ResponseParser parser = new ResponseParser();
+        if (in == null) {
+            return parser;
+        }
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try {
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                parser.feed(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return parser;
+    }
+
+    /**
+     * This method parses the next chunk of the response
+     *
+     * @param chars  The buffer
+     * @param offset The start of the chunk
+     * @param length The length of the chunk
+     */
+    public void feed(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (inTag) {
+                if (c == '>') {
+                    inTag = false;
+                    endTag();
+                } else if (tag.length() < MAX_CONTENT_LENGTH) {
+                    tag.append(c);
+                }
+            } else if (c == '<') {
+                inTag = true;
+                tag.setLength(0);
+            } else if (content != null && content.length() < MAX_CONTENT_LENGTH) {
+                content.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return The content of the &lt;message&gt; element, the result code of the API
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return The content of the &lt;comment&gt; element
+     */
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * @return The commands of the &lt;voice&gt; elements, the voices supported by the rabbit, empty if there are none
+     */
+    public List<String> getVoices() {
+        return voices != null ? Collections.unmodifiableList(voices) : Collections.<String>emptyList();
+    }
+
+    /**
+     * This method creates the result of the call
+     *
+     * @param latencyMillis The duration of the call
+     * @return The result
+     */
+    public PublishResult toResult(long latencyMillis) {
+        return PublishResult.fromResponse(message, comment, latencyMillis);
+    }
+
+    private void endTag() {
+        if (tag.length() == 0 || tag.charAt(0) == '?' || tag.charAt(0) == '!') {
+            return;
+        }
+        boolean closing = tag.charAt(0) == '/';
+        String name = elementName(closing ? 1 : 0);
+        if (!closing && "voice".equals(name)) {
+            addVoice();
+        } else if (closing) {
+            if (content != null && name.equals(contentElement)) {
+                String value = unescape(content.toString().trim());
+                if ("message".equals(name)) {
+                    message = value;
+                } else {
+                    comment = value;
+                }
+                content = null;
+            }
+        } else if (tag.charAt(tag.length() - 1) != '/'
+                && (("message".equals(name) && message == null) || ("comment".equals(name) && comment == null))) {
+            content = new StringBuilder();
+            contentElement = name;
+        }
+    }
+
+    private void addVoice() {
+        int start = tag.indexOf(COMMAND_ATTRIBUTE);
+        if (start < 0) {
+            return;
+        }
+        start += COMMAND_ATTRIBUTE.length();
+        int end = tag.indexOf("\"", start);
+        if (end <= start) {
+            return;
+        }
+        if (voices == null) {
+            voices = new ArrayList<String>();
+        }
+        if (voices.size() < MAX_VOICES) {
+            voices.add(unescape(tag.substring(start, end)));
+        }
+    }
+
+    private String elementName(int start) {
+        int end = start;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/') {
+            end++;
+        }
+        return tag.substring(start, end);
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,67 @@
+package com.agimatec.nabaztag;
+
+/**
+ * Retries and circuit breaker settings of the {@link NabaztagPublisher}.
+ */
+public class RetryConfig {
+    // number of retries after a failed or timed out call, rejected calls are never retried
+    private int maxRetries = 2;
+    // delay before the first retry, doubled for every further retry
+    private int baseDelayMillis = 500;
+    // upper limit of the delay between retries
+    private int maxDelayMillis = 4000;
+    // number of failed calls in a row which open the circuit of a rabbit
+    private int failureThreshold = 5;
+    // time the circuit stays open before a probe call is let through, doubled every time the probe fails
+    private int openMillis = 30000;
+    // upper limit of the time the circuit stays open
+    private int maxOpenMillis = 600000;
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public void setBaseDelayMillis(int baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public int getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(int maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public int getOpenMillis() {
+        return openMillis;
+    }
+
+    public void setOpenMillis(int openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    public int getMaxOpenMillis() {
+        return maxOpenMillis;
+    }
+
+    public void setMaxOpenMillis(int maxOpenMillis) {
+        this.maxOpenMillis = maxOpenMillis;
+    }
+}
@@ -0,0 +1,47 @@
+package com.agimatec.nabaztag;
+
+/**
+ * Timeouts and connection limits of the {@link NabaztagTransport}.
+ */
+public class TransportConfig {
+    // maximum time to establish the TCP connection
+    private int connectTimeoutMillis = 5000;
+    // maximum time to wait for data on an established connection
+    private int readTimeoutMillis = 10000;
+    // maximum time for a whole call, from connecting to the last byte of the response
+    private int totalTimeoutMillis = 15000;
+    // maximum number of concurrent connections to one host, matches the default keep-alive cache size of the JDK
+    private int maxConnectionsPerHost = 5;
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getTotalTimeoutMillis() {
+        return totalTimeoutMillis;
+    }
+
+    public void setTotalTimeoutMillis(int totalTimeoutMillis) {
+        this.totalTimeoutMillis = totalTimeoutMillis;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+}
@@ -0,0 +1,187 @@
+package com.agimatec.nabaztag;
+
+import com.agimatec.nabaztag.log.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The voices supported by each rabbit, fetched with {@link Nabaztag#ACTION_SUPPORTED_VOICES}. Lookups never
+ * wait for the Nabaztag API: a rabbit which was not asked yet gets the well-known voices, and the voices of a
+ * rabbit are fetched again on a transport thread once they are older than the time to live.
+ * <p/>
+ * Configured voices are checked against the catalogue, so a misspelled voice is replaced before the call
+ * instead of making the rabbit stay silent.
+ */
+public class VoiceCatalogue {
+    private static final Log LOG = Log.get(VoiceCatalogue.class);
+
+    // the voices of the Nabaztag/tag, used until the voices of a rabbit are known
+    private static final Voices DEFAULT_VOICES = new Voices(new String[]{"AU-Colleen", "AU-Jon", "UK-Edwin", "UK-Leonard",
+            "UK-Mistermuggles", "UK-Penelope", "UK-Rachel", "UK-Shirley", "US-Bethany", "US-Billye", "US-Clarence",
+            "US-Darleen", "US-Ernest", "US-Liberty", "US-Lilian"}, false, 0);
+    // the catalogue is cleared when it grows beyond this
+    private static final int MAX_CACHED_RABBITS = 10000;
+    // a failed fetch is repeated after this, or after the time to live if that is shorter
+    private static final long RETRY_MILLIS = 60000;
+
+    private final NabaztagTransport transport;
+    private final long timeToLiveMillis;
+    private final ConcurrentMap<RabbitEndpoint, Voices> catalogue = new ConcurrentHashMap<RabbitEndpoint, Voices>();
+    // the fetches in progress
+    private final ConcurrentMap<RabbitEndpoint, CompletableFuture<Boolean>> refreshing = new ConcurrentHashMap<RabbitEndpoint, CompletableFuture<Boolean>>();
+
+    /**
+     * @param transport        The transport used to fetch the voices
+     * @param timeToLiveMillis The time after which the voices of a rabbit are fetched again
+     */
+    public VoiceCatalogue(NabaztagTransport transport, long timeToLiveMillis) {
+        this.transport = transport;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * This method returns the voices of the rabbit and starts fetching them if they are unknown or outdated
+     *
+     * @param endpoint The rabbit
+     * @return The voices of the rabbit, the well-known voices while they are fetched
+     */
+    public List<String> getVoices(RabbitEndpoint endpoint) {
+        return Collections.unmodifiableList(Arrays.asList(lookup(endpoint).voices));
+    }
+
+    /**
+     * @param endpoint The rabbit
+     * @param voice    The voice
+     * @return true if the rabbit supports the voice, or if the voices of the rabbit are not known yet
+     */
+    public boolean isSupported(RabbitEndpoint endpoint, String voice) {
+        Voices voices = lookup(endpoint);
+        return !voices.fetched || voices.names.contains(voice);
+    }
+
+    /**
+     * @param endpoint The rabbit
+     * @return A random voice of the rabbit
+     */
+    public String randomVoice(RabbitEndpoint endpoint) {
+        return lookup(endpoint).random();
+    }
+
+    /**
+     * This method chooses the voice of a message. An unsupported voice is logged and replaced by a random one.
+     *
+     * @param endpoint        The rabbit
+     * @param configuredVoice The voice set by the user, empty or null for a random voice
+     * @return The voice to send
+     */
+    public String resolve(RabbitEndpoint endpoint, String configuredVoice) {
+        Voices voices = lookup(endpoint);
+        if (configuredVoice == null || configuredVoice.equals("")) {
+            return voices.random();
+        }
+        if (!voices.fetched || voices.names.contains(configuredVoice)) {
+            return configuredVoice;
+        }
+        LOG.errorLimited(endpoint.getRabbitID(), "-- UNSUPPORTED VOICE: " + configuredVoice + " --", null);
+        return voices.random();
+    }
+
+    /**
+     * This method fetches the voices of the rabbit on a transport thread, unless that is already happening
+     *
+     * @param endpoint The rabbit
+     * @return A future completed with true if the voices were fetched, it never completes exceptionally
+     */
+    public CompletableFuture<Boolean> refresh(final RabbitEndpoint endpoint) {
+        final CompletableFuture<Boolean> fetched = new CompletableFuture<Boolean>();
+        CompletableFuture<Boolean> inProgress = refreshing.putIfAbsent(endpoint, fetched);
+        if (inProgress != null) {
+            return inProgress;
+        }
+        final String url = new NabaztagRequest(endpoint, null, null, null, Nabaztag.ACTION_SUPPORTED_VOICES).toEncodedUrl();
+        try {
+            transport.supplyAsync(() -> fetch(endpoint, url)).whenComplete((result, failure) -> {
+                refreshing.remove(endpoint, fetched);
+                fetched.complete(result != null && result);
+            });
+        } catch (RejectedExecutionException e) {
+            // the transport is closed
+            refreshing.remove(endpoint, fetched);
+            fetched.complete(false);
+        }
+        return fetched;
+    }
+
+    private boolean fetch(RabbitEndpoint endpoint, String url) {
+        long now = System.currentTimeMillis();
+        try {
+            List<String> fetched = transport.fetch(url).getVoices();
+            if (!fetched.isEmpty()) {
+                store(endpoint, new Voices(fetched.toArray(new String[fetched.size()]), true, now + timeToLiveMillis));
+                return true;
+            }
+            LOG.errorLimited(endpoint.getRabbitID(), "-- NO VOICES RECEIVED --", null);
+            retryLater(endpoint, now);
+        } catch (Exception e) {
+            LOG.errorLimited(endpoint.getRabbitID(), "-- FETCHING VOICES FAILED --", e);
+            retryLater(endpoint, now);
+        }
+        return false;
+    }
+
+    /**
+     * This method keeps what is known about the rabbit and asks again later
+     */
+    private void retryLater(RabbitEndpoint endpoint, long now) {
+        Voices known = catalogue.get(endpoint);
+        store(endpoint, new Voices(known != null ? known.voices : DEFAULT_VOICES.voices, known != null && known.fetched,
+                now + Math.min(RETRY_MILLIS, timeToLiveMillis)));
+    }
+
+    private Voices lookup(RabbitEndpoint endpoint) {
+        Voices voices = catalogue.get(endpoint);
+        if (voices == null || System.currentTimeMillis() >= voices.refreshMillis) {
+            refresh(endpoint);
+        }
+        return voices != null ? voices : DEFAULT_VOICES;
+    }
+
+    private void store(RabbitEndpoint endpoint, Voices voices) {
+        if (catalogue.size() >= MAX_CACHED_RABBITS) {
+            catalogue.clear();
+        }
+        catalogue.put(endpoint, voices);
+    }
+
+    /**
+     * The voices of a rabbit
+     */
+    private static class Voices {
+        private final String[] voices;
+        private final Set<String> names;
+        // true if the voices were fetched from the rabbit
+        private final boolean fetched;
+        // the voices are fetched again after this time
+        private final long refreshMillis;
+
+        private Voices(String[] voices, boolean fetched, long refreshMillis) {
+            this.voices = voices;
+            this.names = new HashSet<String>(Arrays.asList(voices));
+            this.fetched = fetched;
+            this.refreshMillis = refreshMillis;
+        }
+
+        private String random() {
+            return voices[ThreadLocalRandom.current().nextInt(voices.length)];
+        }
+    }
+}
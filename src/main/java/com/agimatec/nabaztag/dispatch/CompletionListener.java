@@ -0,0 +1,16 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.PublishResult;
+
+/**
+ * Is told when the {@link NabaztagDispatcher} is done with a message: it was published, the call failed for
+ * good, or the message was discarded. Messages which are still pending at shutdown are not completed.
+ */
+public interface CompletionListener {
+    /**
+     * @param request The message
+     * @param result  The result of the call, null if the message was discarded
+     */
+    void completed(NabaztagRequest request, PublishResult result);
+}
@@ -0,0 +1,88 @@
+package com.agimatec.nabaztag.dispatch;
+
+/**
+ * Settings of the {@link NabaztagDispatcher}. All values have defaults, which are fine for a
+ * single TeamCity server with a handful of rabbits.
+ */
+public class DispatchConfig {
+    // maximum number of messages waiting for a worker
+    private int queueCapacity = 1000;
+    // number of worker threads calling the Nabaztag API
+    private int workerCount = 2;
+    // run the workers on virtual threads, if the JVM supports them
+    private boolean virtualThreads = false;
+    // what to do when the queue is full
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    // how long a BLOCK offer waits for free space
+    private long offerTimeoutMillis = 1000;
+    // how long shutdown waits for pending messages to be sent
+    private long shutdownTimeoutMillis = 10000;
+    // number of messages a rabbit may receive in a burst
+    private int rateLimitBurst = 3;
+    // number of messages a rabbit may receive per minute after a burst, 0 disables the rate limit
+    private int rateLimitPerMinute = 12;
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getOfferTimeoutMillis() {
+        return offerTimeoutMillis;
+    }
+
+    public void setOfferTimeoutMillis(long offerTimeoutMillis) {
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public int getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+
+    public void setRateLimitPerMinute(int rateLimitPerMinute) {
+        this.rateLimitPerMinute = rateLimitPerMinute;
+    }
+}
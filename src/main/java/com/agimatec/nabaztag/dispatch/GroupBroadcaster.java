@@ -0,0 +1,256 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.log.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This broadcaster sends one message to every rabbit of a group at the same time. Up to the configured
+ * parallelism calls are made at once on transport threads, every finished call starts the next one, so a
+ * group of hundreds of rabbits takes a few round trips instead of one per rabbit. The broadcasts do not use the
+ * workers of the dispatcher, so they never hold up the messages of the users.
+ * <p/>
+ * The messages of a broadcast are recorded in the journal until they are answered or missed, a message past the
+ * time to live of its rabbit is not sent, and the calls take the tokens of the rabbits from the rate limiter of
+ * the dispatcher. A broadcast ends at its deadline: calls which were not started by then are not made, and
+ * rabbits which did not answer are reported as missed. The broadcast never blocks the caller.
+ */
+public class GroupBroadcaster {
+    private static final Log LOG = Log.get(GroupBroadcaster.class);
+
+    private final NabaztagPublisher publisher;
+    private final int parallelism;
+    // null if the calls to the rabbits of groups are not limited
+    private final RateLimiter rateLimiter;
+    // null if the broadcasts are not journaled
+    private final OutboxJournal journal;
+    // ends the broadcasts at their deadline and starts throttled calls
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param publisher   The publisher making the calls
+     * @param parallelism The maximum number of calls of one broadcast at the same time
+     */
+    public GroupBroadcaster(NabaztagPublisher publisher, int parallelism) {
+        this(publisher, parallelism, null, null);
+    }
+
+    /**
+     * @param publisher   The publisher making the calls
+     * @param parallelism The maximum number of calls of one broadcast at the same time
+     * @param rateLimiter The rate limiter shared with the dispatcher, may be null
+     * @param journal     The journal of the pending messages, may be null
+     */
+    public GroupBroadcaster(NabaztagPublisher publisher, int parallelism, RateLimiter rateLimiter, OutboxJournal journal) {
+        this.publisher = publisher;
+        this.parallelism = Math.max(1, parallelism);
+        this.rateLimiter = rateLimiter;
+        this.journal = journal;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buildbunny-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This method starts the calls to the rabbits of a group
+     *
+     * @param group          The name of the group, for the log
+     * @param requests       The message for every rabbit of the group
+     * @param deadlineMillis The time the broadcast may take
+     * @return A future completed when every rabbit answered or the deadline elapsed, it never completes exceptionally
+     */
+    public CompletableFuture<BroadcastResult> broadcast(String group, List<NabaztagRequest> requests, long deadlineMillis) {
+        Broadcast broadcast = new Broadcast(group, new ArrayList<NabaztagRequest>(requests), deadlineMillis);
+        if (requests.isEmpty()) {
+            broadcast.finish();
+            return broadcast.done;
+        }
+        if (journal != null) {
+            for (NabaztagRequest request : requests) {
+                journal.append(request);
+            }
+        }
+        try {
+            broadcast.deadline = timer.schedule(broadcast::finish, deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down in the meantime
+            broadcast.finish();
+            return broadcast.done;
+        }
+        for (int i = 0; i < Math.min(parallelism, requests.size()); i++) {
+            broadcast.startNext();
+        }
+        return broadcast.done;
+    }
+
+    /**
+     * This method ends the running broadcasts. Running calls are finished, but no further calls are started.
+     */
+    public void shutdown() {
+        for (Runnable task : timer.shutdownNow()) {
+            task.run();
+        }
+    }
+
+    public static final class BroadcastResult {
+        private final int rabbitCount;
+        private final int sentCount;
+        private final int failedCount;
+        private final long elapsedMillis;
+
+        private BroadcastResult(int rabbitCount, int sentCount, int failedCount, long elapsedMillis) {
+            this.rabbitCount = rabbitCount;
+            this.sentCount = sentCount;
+            this.failedCount = failedCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getRabbitCount() {
+            return rabbitCount;
+        }
+
+        /**
+         * @return The number of rabbits which accepted the message
+         */
+        public int getSentCount() {
+            return sentCount;
+        }
+
+        /**
+         * @return The number of rabbits whose call failed or was rejected, or whose message was discarded
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return The number of rabbits which did not answer before the deadline
+         */
+        public int getMissedCount() {
+            return rabbitCount - sentCount - failedCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public String toString() {
+            return sentCount + " sent, " + failedCount + " failed, " + getMissedCount() + " missed of " + rabbitCount
+                    + " rabbits in " + elapsedMillis + " ms";
+        }
+    }
+
+    private class Broadcast {
+        private final String group;
+        private final List<NabaztagRequest> requests;
+        private final long startNanos = System.nanoTime();
+        private final long deadlineMillis;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final CompletableFuture<BroadcastResult> done = new CompletableFuture<BroadcastResult>();
+        private volatile ScheduledFuture<?> deadline;
+
+        private Broadcast(String group, List<NabaztagRequest> requests, long deadlineMillis) {
+            this.group = group;
+            this.requests = requests;
+            this.deadlineMillis = System.currentTimeMillis() + deadlineMillis;
+        }
+
+        private void startNext() {
+            int index;
+            if (done.isDone() || (index = next.getAndIncrement()) >= requests.size()) {
+                return;
+            }
+            final NabaztagRequest request = requests.get(index);
+            long now = System.currentTimeMillis();
+            long remaining = Math.min(request.getRemainingMillis(now), deadlineMillis - now);
+            if (remaining < 0) {
+                // too old to be played, or the broadcast is about to end
+                answered(request, null);
+                return;
+            }
+            long wait = rateLimiter != null ? rateLimiter.reserve(request.getRabbitID(), now, remaining) : 0;
+            if (wait < 0) {
+                answered(request, null);
+            } else if (wait == 0) {
+                call(request);
+            } else {
+                try {
+                    timer.schedule(() -> call(request), wait, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // shut down in the meantime
+                    forget(request);
+                }
+            }
+        }
+
+        private void call(final NabaztagRequest request) {
+            if (done.isDone()) {
+                forget(request);
+                return;
+            }
+            try {
+                publisher.publishAsync(request).whenComplete((result, failure) -> answered(request, result));
+            } catch (RejectedExecutionException e) {
+                // the transport is closed
+                answered(request, null);
+            }
+        }
+
+        private void answered(NabaztagRequest request, PublishResult result) {
+            forget(request);
+            if (result != null && result.isSuccess()) {
+                sent.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            if (sent.get() + failed.get() >= requests.size()) {
+                finish();
+            } else {
+                startNext();
+            }
+        }
+
+        /**
+         * This method forgets a message which was answered or will not be sent any more
+         */
+        private void forget(NabaztagRequest request) {
+            if (journal != null) {
+                journal.complete(request);
+            }
+        }
+
+        private void finish() {
+            BroadcastResult result = new BroadcastResult(requests.size(), sent.get(), failed.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            ScheduledFuture<?> pending = deadline;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            if (!done.complete(result)) {
+                return;
+            }
+            // the calls which were not started are not made
+            for (int i = Math.min(next.getAndSet(requests.size()), requests.size()); i < requests.size(); i++) {
+                forget(requests.get(i));
+            }
+            if (result.getMissedCount() > 0) {
+                LOG.warn("-- BROADCAST TO " + group + " MISSED THE DEADLINE: " + result + " --");
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.agimatec.nabaztag.dispatch;
+
+/**
+ * Settings of the {@link OutboxJournal}.
+ */
+public class JournalConfig {
+    // size of one memory-mapped segment file
+    private int segmentSize = 4 * 1024 * 1024;
+    // how often appended entries are forced to disk, entries of this period may be lost on a crash
+    private long syncIntervalMillis = 100;
+    // when there are more segments, the live entries of the oldest one are copied forward and it is deleted
+    private int maxSegments = 8;
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+}
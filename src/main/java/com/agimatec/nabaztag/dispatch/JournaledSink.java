@@ -0,0 +1,22 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.NabaztagRequest;
+
+/**
+ * A sink which records every message in the {@link OutboxJournal} before it is handed to the dispatcher.
+ * The dispatcher completes the journal entry, see {@link CompletionListener}.
+ */
+public class JournaledSink implements MessageSink {
+    private final OutboxJournal journal;
+    private final MessageSink target;
+
+    public JournaledSink(OutboxJournal journal, MessageSink target) {
+        this.journal = journal;
+        this.target = target;
+    }
+
+    public boolean submit(NabaztagRequest request) {
+        journal.append(request);
+        return target.submit(request);
+    }
+}
@@ -0,0 +1,37 @@
+package com.agimatec.nabaztag.dispatch;
+
+/**
+ * Settings of the {@link ShardLeases}.
+ */
+public class LeaseConfig {
+    // the rabbits are spread over this number of shards, every shard is owned by one node
+    private int shards = 16;
+    // a lease which was not renewed for this time is taken over by another node
+    private long leaseMillis = 10000;
+    // how often a node renews its leases and looks for shards without owner
+    private long heartbeatMillis = 2000;
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+    }
+}
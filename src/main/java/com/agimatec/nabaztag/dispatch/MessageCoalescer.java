@@ -0,0 +1,243 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This coalescer collects the messages for one rabbit during a short time window and merges them into a
+ * single spoken summary, e.g. "5 builds succeeded, Core and Web failed." A commit which triggers twenty
+ * build configurations then results in one call to the Nabaztag API instead of twenty.
+ * <p/>
+ * The window starts with the first message for a rabbit. A message which stays alone in its window is
+ * passed on unchanged. A window of 0 disables coalescing. A message replaces the message about the same
+ * topic in the window, so the summary does not mention a build that has already changed again.
+ * <p/>
+ * Only messages with a subject are summarized. A message without one, e.g. rendered from a message the user
+ * wrote, is spoken as it is and passed on at once.
+ * <p/>
+ * Messages waiting in a window are recorded in the {@link OutboxJournal}, so they survive a crash. A message
+ * merged into a summary or replaced by a newer one is marked done once the summary was handed on.
+ */
+public class MessageCoalescer {
+    // up to this number of subjects per outcome are spoken by name, more are counted
+    private static final int MAX_NAMED_SUBJECTS = 2;
+
+    private final MessageSink sink;
+    private final long windowMillis;
+    // null if the messages are not journaled
+    private final OutboxJournal journal;
+    private final ScheduledExecutorService timer;
+    private final Map<String, List<PendingMessage>> pending = new HashMap<String, List<PendingMessage>>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean running = true;
+
+    public MessageCoalescer(MessageSink sink, long windowMillis) {
+        this(sink, windowMillis, null);
+    }
+
+    /**
+     * @param sink         The next stage, it has to journal the messages handed to it as well
+     * @param windowMillis The time window, 0 to pass all messages on at once
+     * @param journal      Records the messages waiting in a window, may be null
+     */
+    public MessageCoalescer(MessageSink sink, long windowMillis, OutboxJournal journal) {
+        this.sink = sink;
+        this.windowMillis = windowMillis;
+        this.journal = journal;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buildbunny-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This method adds a message to the window of its rabbit
+     *
+     * @param request  The message to be published
+     * @param subject  What the message is about as it is spoken, usually the build configuration name; null if
+     *                 the message must not be summarized
+     * @param outcome  What happened to the subject, e.g. "succeeded" or "failed"
+     */
+    public void offer(NabaztagRequest request, String subject, String outcome) {
+        if (windowMillis <= 0 || !running) {
+            sink.submit(request);
+            return;
+        }
+
+        final String rabbitID = request.getRabbitID();
+        NabaztagRequest replaced = null;
+        synchronized (pending) {
+            List<PendingMessage> messages = pending.get(rabbitID);
+            if (messages != null && request.getTopic() != null) {
+                for (int i = 0; i < messages.size(); i++) {
+                    if (request.getTopic().equals(messages.get(i).request.getTopic())) {
+                        replaced = messages.remove(i).request;
+                        coalesced.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+
+            if (subject != null) {
+                if (messages == null) {
+                    try {
+                        timer.schedule(() -> flush(rabbitID), windowMillis, TimeUnit.MILLISECONDS);
+                        messages = new ArrayList<PendingMessage>();
+                        pending.put(rabbitID, messages);
+                    } catch (RejectedExecutionException e) {
+                        // shut down in the meantime
+                        messages = null;
+                    }
+                }
+                if (messages != null) {
+                    if (journal != null) {
+                        journal.append(request);
+                    }
+                    messages.add(new PendingMessage(request, subject, outcome));
+                    request = null;
+                }
+            }
+        }
+
+        if (request != null) {
+            sink.submit(request);
+        }
+        if (replaced != null && journal != null) {
+            journal.complete(replaced);
+        }
+    }
+
+    /**
+     * This method sends all pending messages without waiting for their windows to close and stops the timer
+     */
+    public void shutdown() {
+        running = false;
+        timer.shutdownNow();
+
+        List<String> rabbitIDs;
+        synchronized (pending) {
+            rabbitIDs = new ArrayList<String>(pending.keySet());
+        }
+        for (String rabbitID : rabbitIDs) {
+            flush(rabbitID);
+        }
+    }
+
+    /**
+     * @return The number of messages which were merged into another message instead of being sent
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private void flush(String rabbitID) {
+        List<PendingMessage> messages;
+        synchronized (pending) {
+            messages = pending.remove(rabbitID);
+        }
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+
+        if (messages.size() == 1) {
+            sink.submit(messages.get(0).request);
+        } else {
+            coalesced.addAndGet(messages.size() - 1);
+            // the summary is journaled by the sink before the merged messages are done
+            sink.submit(merge(messages));
+            if (journal != null) {
+                for (PendingMessage message : messages) {
+                    journal.complete(message.request);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method merges the messages into one. Rabbit settings and the creation time are taken from the
+     * latest message. The ears are sad if any of the messages was sad, otherwise they are taken from the
+     * latest message with ears. The merged message is as urgent as the most urgent message, and keeps the topic
+     * only if all messages are about it.
+     */
+    private static NabaztagRequest merge(List<PendingMessage> messages) {
+        Map<String, Set<String>> subjectsByOutcome = new LinkedHashMap<String, Set<String>>();
+        String ears = null;
+        MessagePriority priority = MessagePriority.NORMAL;
+        String topic = messages.get(0).request.getTopic();
+        for (PendingMessage message : messages) {
+            Set<String> subjects = subjectsByOutcome.get(message.outcome);
+            if (subjects == null) {
+                subjects = new LinkedHashSet<String>();
+                subjectsByOutcome.put(message.outcome, subjects);
+            }
+            subjects.add(message.subject);
+            if (message.request.getEars() != null && !Nabaztag.EARS_SAD.equals(ears)) {
+                ears = message.request.getEars();
+            }
+            if (message.request.getPriority().compareTo(priority) < 0) {
+                priority = message.request.getPriority();
+            }
+            if (topic != null && !topic.equals(message.request.getTopic())) {
+                topic = null;
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : subjectsByOutcome.entrySet()) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            appendSubjects(text, entry.getValue());
+            text.append(' ').append(entry.getKey());
+        }
+        text.append('.');
+
+        NabaztagRequest latest = messages.get(messages.size() - 1).request;
+        // Bunny stops talking when it encounters a #
+        return new NabaztagRequest(latest.getEndpoint(), text.toString().replace('#', ' '), latest.getVoice(), ears, latest.getAction(),
+                latest.getCreatedMillis(), priority, topic);
+    }
+
+    private static void appendSubjects(StringBuilder text, Set<String> subjects) {
+        if (subjects.size() > MAX_NAMED_SUBJECTS) {
+            text.append(subjects.size()).append(" builds");
+            return;
+        }
+
+        int index = 0;
+        for (String subject : subjects) {
+            if (index > 0) {
+                text.append(index == subjects.size() - 1 ? " and " : ", ");
+            }
+            text.append(subject);
+            index++;
+        }
+    }
+
+    private static class PendingMessage {
+        private final NabaztagRequest request;
+        private final String subject;
+        private final String outcome;
+
+        private PendingMessage(NabaztagRequest request, String subject, String outcome) {
+            this.request = request;
+            this.subject = subject;
+            this.outcome = outcome;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.NabaztagRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of the {@link NabaztagDispatcher}. Every rabbit has its own queue, in which urgent messages
+ * come before normal ones and messages of the same priority keep their order. The rabbits with pending
+ * messages take turns, so a busy rabbit does not hold up the others.
+ * <p/>
+ * A message with a topic supersedes the pending messages of the same rabbit and topic which are older and not
+ * more urgent: they are removed before they are sent, e.g. "Core is building" once "Core succeeded" arrives.
+ * An urgent message like "Core failed" is never superseded by a normal one. The message takes the place of a
+ * removed message, so superseding never needs room in the queue.
+ */
+public class MessageScheduler {
+    private final int capacity;
+    private final SupersededListener supersededListener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<String, RabbitQueue> queues = new HashMap<String, RabbitQueue>();
+    // the rabbits with pending messages, in turn
+    private final ArrayDeque<RabbitQueue> ready = new ArrayDeque<RabbitQueue>();
+    private int size;
+
+    /**
+     * @param capacity           The maximum number of pending messages
+     * @param supersededListener Is told about every message which was superseded, called without holding a lock
+     */
+    public MessageScheduler(int capacity, SupersededListener supersededListener) {
+        this.capacity = Math.max(1, capacity);
+        this.supersededListener = supersededListener;
+    }
+
+    /**
+     * This method adds a message unless the queue is full
+     *
+     * @param request The message
+     * @return true if the message was added or superseded a pending message, false if the queue is full
+     */
+    public boolean offer(NabaztagRequest request) {
+        List<NabaztagRequest> superseded;
+        lock.lock();
+        try {
+            superseded = add(request);
+            if (superseded == null) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifySuperseded(superseded);
+        return true;
+    }
+
+    /**
+     * This method adds a message, waiting for room if the queue is full
+     *
+     * @param request The message
+     * @param timeout The longest time to wait for room
+     * @param unit    The unit of the timeout
+     * @return true if the message was added or superseded a pending message, false if there was no room in time
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean offer(NabaztagRequest request, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        List<NabaztagRequest> superseded;
+        lock.lockInterruptibly();
+        try {
+            while ((superseded = add(request)) == null) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifySuperseded(superseded);
+        return true;
+    }
+
+    /**
+     * This method takes the next message: the most urgent message of the rabbit whose turn it is
+     *
+     * @param timeout The longest time to wait for a message
+     * @param unit    The unit of the timeout
+     * @return The message, null if there was none in time
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public NabaztagRequest poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            RabbitQueue queue = ready.poll();
+            NabaztagRequest request = queue.poll();
+            if (queue.isEmpty()) {
+                queues.remove(queue.rabbitID);
+            } else {
+                ready.add(queue);
+            }
+            removed();
+            return request;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method removes the message which matters least: the oldest message of the lowest priority. A message
+     * more urgent than the given priority is never removed, so a normal message cannot push out an urgent one.
+     *
+     * @param priority The most urgent priority which may be removed
+     * @return The removed message, null if there is no message of the given or a lower priority
+     */
+    public NabaztagRequest pollLeastUrgent(MessagePriority priority) {
+        lock.lock();
+        try {
+            MessagePriority[] priorities = MessagePriority.values();
+            for (int level = priorities.length - 1; level >= priority.ordinal(); level--) {
+                RabbitQueue oldest = null;
+                for (RabbitQueue queue : ready) {
+                    NabaztagRequest head = queue.byPriority.get(level).peek();
+                    if (head != null && (oldest == null || head.getCreatedMillis() < oldest.byPriority.get(level).peek().getCreatedMillis())) {
+                        oldest = queue;
+                    }
+                }
+                if (oldest != null) {
+                    NabaztagRequest request = oldest.byPriority.get(level).poll();
+                    oldest.forget(request);
+                    if (oldest.isEmpty()) {
+                        queues.remove(oldest.rabbitID);
+                        ready.remove(oldest);
+                    }
+                    removed();
+                    return request;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method removes all pending messages
+     *
+     * @return The number of removed messages
+     */
+    public int clear() {
+        lock.lock();
+        try {
+            int cleared = size;
+            queues.clear();
+            ready.clear();
+            size = 0;
+            notFull.signalAll();
+            return cleared;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return null if the queue is full, otherwise the superseded messages, which may be the offered one
+     */
+    private List<NabaztagRequest> add(NabaztagRequest request) {
+        String rabbitID = String.valueOf(request.getRabbitID());
+        RabbitQueue queue = queues.get(rabbitID);
+
+        if (queue != null && request.getTopic() != null) {
+            int level = request.getPriority().ordinal();
+            for (int i = 0; i <= level; i++) {
+                NabaztagRequest pending = queue.byTopic.get(i).get(request.getTopic());
+                if (pending != null && pending.getCreatedMillis() > request.getCreatedMillis()) {
+                    // the offered message is the outdated one
+                    return Collections.singletonList(request);
+                }
+            }
+            List<NabaztagRequest> superseded = new ArrayList<NabaztagRequest>();
+            for (int i = level; i < queue.byTopic.size(); i++) {
+                NabaztagRequest pending = queue.byTopic.get(i).get(request.getTopic());
+                if (pending != null && pending.getCreatedMillis() <= request.getCreatedMillis()) {
+                    queue.byPriority.get(i).remove(pending);
+                    queue.forget(pending);
+                    superseded.add(pending);
+                }
+            }
+            if (!superseded.isEmpty()) {
+                queue.add(request);
+                for (int i = 1; i < superseded.size(); i++) {
+                    removed();
+                }
+                return superseded;
+            }
+        }
+
+        if (size >= capacity) {
+            return null;
+        }
+        if (queue == null) {
+            queue = new RabbitQueue(rabbitID);
+            queues.put(rabbitID, queue);
+            ready.add(queue);
+        }
+        queue.add(request);
+        size++;
+        notEmpty.signal();
+        return Collections.emptyList();
+    }
+
+    private void removed() {
+        size--;
+        notFull.signal();
+    }
+
+    private void notifySuperseded(List<NabaztagRequest> superseded) {
+        if (supersededListener != null) {
+            for (NabaztagRequest request : superseded) {
+                supersededListener.superseded(request);
+            }
+        }
+    }
+
+    /**
+     * Is told about messages which became obsolete before they were sent
+     */
+    public interface SupersededListener {
+        /**
+         * @param request The message which will not be sent
+         */
+        void superseded(NabaztagRequest request);
+    }
+
+    /**
+     * The pending messages of one rabbit
+     */
+    private static class RabbitQueue {
+        private final String rabbitID;
+        private final List<ArrayDeque<NabaztagRequest>> byPriority = new ArrayList<ArrayDeque<NabaztagRequest>>();
+        // the pending message of each topic, by priority
+        private final List<Map<String, NabaztagRequest>> byTopic = new ArrayList<Map<String, NabaztagRequest>>();
+
+        private RabbitQueue(String rabbitID) {
+            this.rabbitID = rabbitID;
+            for (int i = 0; i < MessagePriority.values().length; i++) {
+                byPriority.add(new ArrayDeque<NabaztagRequest>());
+                byTopic.add(new HashMap<String, NabaztagRequest>());
+            }
+        }
+
+        private void add(NabaztagRequest request) {
+            byPriority.get(request.getPriority().ordinal()).add(request);
+            if (request.getTopic() != null) {
+                byTopic.get(request.getPriority().ordinal()).put(request.getTopic(), request);
+            }
+        }
+
+        private NabaztagRequest poll() {
+            for (ArrayDeque<NabaztagRequest> requests : byPriority) {
+                NabaztagRequest request = requests.poll();
+                if (request != null) {
+                    forget(request);
+                    return request;
+                }
+            }
+            return null;
+        }
+
+        private void forget(NabaztagRequest request) {
+            if (request.getTopic() != null) {
+                byTopic.get(request.getPriority().ordinal()).remove(request.getTopic(), request);
+            }
+        }
+
+        private boolean isEmpty() {
+            for (ArrayDeque<NabaztagRequest> requests : byPriority) {
+                if (!requests.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
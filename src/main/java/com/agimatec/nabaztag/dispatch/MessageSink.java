@@ -0,0 +1,14 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.NabaztagRequest;
+
+/**
+ * A stage of the notification pipeline which accepts messages for the rabbits.
+ */
+public interface MessageSink {
+    /**
+     * @param request The message to be published
+     * @return true if the message was accepted, false if it was discarded
+     */
+    boolean submit(NabaztagRequest request);
+}
@@ -0,0 +1,345 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.log.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This dispatcher decouples the callers from the Nabaztag API. Messages are put into a bounded
+ * queue and published by a pool of worker threads, so a slow rabbit API never blocks the thread
+ * which produced the message. When the queue is full, the configured {@link OverflowPolicy} decides
+ * which message is discarded.
+ * <p/>
+ * The queue is a {@link MessageScheduler}: urgent messages of a rabbit are published before its normal ones,
+ * and a message which is superseded by a newer one about the same topic is discarded without being sent.
+ * <p/>
+ * Messages older than the time to live of their rabbit are discarded before they are published, the rabbit
+ * would not play them anyway. The calls to a rabbit are limited by a {@link RateLimiter}; a throttled message
+ * waits for its token outside the queue, so the workers stay free for the other rabbits. For the same reason a
+ * failed call waits for its retry on the timer and is retried on a transport thread.
+ */
+public class NabaztagDispatcher implements MessageSink {
+    private static final Log LOG = Log.get(NabaztagDispatcher.class);
+    // how long an idle worker waits for a message before it checks the running flag again
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final DispatchConfig config;
+    private final NabaztagPublisher publisher;
+    private final CompletionListener completionListener;
+    private final MessageScheduler queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final RateLimiter rateLimiter;
+    // throttled messages are put back into the queue when their token is due, failed calls wait for their retry
+    private final ScheduledExecutorService throttleTimer;
+    // messages which already hold a token
+    private final Set<NabaztagRequest> reserved = Collections.newSetFromMap(new ConcurrentHashMap<NabaztagRequest, Boolean>());
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    // messages whose call or retry is still running
+    private final AtomicInteger publishing = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public NabaztagDispatcher(DispatchConfig config, NabaztagPublisher publisher) {
+        this(config, publisher, null);
+    }
+
+    /**
+     * @param config             The settings
+     * @param publisher          The publisher making the calls
+     * @param completionListener Is told about every message the dispatcher is done with, may be null
+     */
+    public NabaztagDispatcher(DispatchConfig config, NabaztagPublisher publisher, CompletionListener completionListener) {
+        this.config = config;
+        this.publisher = publisher;
+        this.completionListener = completionListener;
+        this.queue = new MessageScheduler(config.getQueueCapacity(), request -> {
+            reserved.remove(request);
+            drop(request, superseded);
+        });
+        this.rateLimiter = new RateLimiter(config.getRateLimitBurst(), config.getRateLimitPerMinute());
+        this.throttleTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buildbunny-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ThreadFactory threadFactory = createThreadFactory(config.isVirtualThreads());
+        for (int i = 0; i < Math.max(1, config.getWorkerCount()); i++) {
+            Thread worker = threadFactory.newThread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * This method queues a message for publishing. It returns immediately unless the queue is full
+     * and the overflow policy is {@link OverflowPolicy#BLOCK}.
+     *
+     * @param request The message to be published
+     * @return true if the message was queued, false if it was discarded
+     */
+    public boolean submit(NabaztagRequest request) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        switch (config.getOverflowPolicy()) {
+            case DROP_NEWEST:
+                if (queue.offer(request)) {
+                    return true;
+                }
+                drop(request, dropped);
+                return false;
+
+            case BLOCK:
+                try {
+                    if (queue.offer(request, config.getOfferTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                drop(request, dropped);
+                return false;
+
+            default:
+                while (!queue.offer(request)) {
+                    NabaztagRequest leastUrgent = queue.pollLeastUrgent(request.getPriority());
+                    if (leastUrgent == null) {
+                        // all pending messages are more urgent than this one
+                        drop(request, dropped);
+                        return false;
+                    }
+                    reserved.remove(leastUrgent);
+                    drop(leastUrgent, dropped);
+                }
+                return true;
+        }
+    }
+
+    /**
+     * This method stops accepting new messages and waits until the pending messages are published or
+     * the shutdown timeout elapsed. Throttled messages are published too when their token is due, and failed
+     * calls are still retried. Messages which are still pending afterwards are discarded.
+     */
+    public void shutdown() {
+        running = false;
+
+        long deadline = System.currentTimeMillis() + config.getShutdownTimeoutMillis();
+        for (Thread worker : workers) {
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+            }
+        }
+        dropped.addAndGet(throttleTimer.shutdownNow().size());
+        dropped.addAndGet(queue.clear());
+    }
+
+    /**
+     * @return The rate limiter of the rabbits, to be shared by everything else calling them
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return The number of messages which were sent, but not accepted by the Nabaztag API
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of messages which had to wait for the rate limit of their rabbit
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return The number of messages which were discarded, as their time to live elapsed before they were sent
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * @return The number of messages which were discarded, as a newer message about the same topic replaced them
+     */
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+
+    /**
+     * The worker loop takes messages from the queue until the dispatcher is shut down, the queue is
+     * drained and no throttled message waits for its token or retry any more.
+     */
+    private void work() {
+        while (running || !queue.isEmpty() || !reserved.isEmpty() || publishing.get() > 0) {
+            NabaztagRequest request;
+            try {
+                request = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (request == null || !admit(request)) {
+                continue;
+            }
+
+            publishing.incrementAndGet();
+            try {
+                publisher.publish(request, throttleTimer).whenComplete((result, failure) -> {
+                    if (failure != null) {
+                        LOG.error("-- DISPATCH EXCEPTION --", failure);
+                    } else if (result.isSuccess()) {
+                        published.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    publishing.decrementAndGet();
+                    completed(request, result);
+                });
+            } catch (RuntimeException e) {
+                LOG.error("-- DISPATCH EXCEPTION --", e);
+                publishing.decrementAndGet();
+                completed(request, null);
+            }
+        }
+    }
+
+    /**
+     * This method checks the time to live and the rate limit of a message taken from the queue
+     *
+     * @param request The message
+     * @return true if the message may be published now
+     */
+    private boolean admit(final NabaztagRequest request) {
+        long now = System.currentTimeMillis();
+        long remaining = request.getRemainingMillis(now);
+        if (remaining < 0) {
+            reserved.remove(request);
+            drop(request, expired);
+            return false;
+        }
+        if (reserved.remove(request)) {
+            return true;
+        }
+
+        long wait = rateLimiter.reserve(request.getRabbitID(), now, remaining);
+        if (wait == 0) {
+            return true;
+        }
+        if (wait < 0) {
+            // no token before the message expires
+            drop(request, expired);
+            return false;
+        }
+
+        throttled.incrementAndGet();
+        reserved.add(request);
+        try {
+            throttleTimer.schedule(() -> {
+                if (!queue.offer(request)) {
+                    reserved.remove(request);
+                    drop(request, dropped);
+                }
+            }, wait, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down in the meantime
+            reserved.remove(request);
+            dropped.incrementAndGet();
+        }
+        return false;
+    }
+
+    private void drop(NabaztagRequest request, AtomicLong counter) {
+        counter.incrementAndGet();
+        completed(request, null);
+    }
+
+    private void completed(NabaztagRequest request, PublishResult result) {
+        if (completionListener != null) {
+            try {
+                completionListener.completed(request, result);
+            } catch (RuntimeException e) {
+                LOG.error("-- COMPLETION LISTENER EXCEPTION --", e);
+            }
+        }
+    }
+
+    /**
+     * This method creates the factory for the worker threads. Virtual threads are looked up by
+     * reflection, so the plugin still runs on JVMs without them and falls back to daemon threads.
+     *
+     * @param virtualThreads true if virtual threads should be used when available
+     * @return A factory for worker threads
+     */
+    private static ThreadFactory createThreadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "buildbunny-dispatch-", 1L);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (Exception ignored) {
+                // no virtual threads on this JVM
+            }
+        }
+
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "buildbunny-dispatch-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
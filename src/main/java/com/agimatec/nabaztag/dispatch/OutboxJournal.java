@@ -0,0 +1,484 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the messages which were handed to the dispatcher, so pending notifications
+ * survive a restart of the TeamCity server. Every message is recorded before it is queued and marked done
+ * when the dispatcher completed it.
+ * <p/>
+ * The journal is a sequence of memory-mapped segment files. Appending only copies the entry into the mapped
+ * segment; a background thread forces the segment to disk every sync interval, so many entries share one
+ * sync (group commit). Segments whose entries are all done are deleted, oldest first. When there are more
+ * segments than configured, the live entries of the oldest segment are copied into the current one. A journal
+ * whose oldest segment is mostly live grows beyond that instead of losing entries.
+ * <p/>
+ * On startup the segments are read, the entries which are not done and not expired are copied into a fresh
+ * segment and returned by {@link #recover()}, the old segments are deleted.
+ * <p/>
+ * An entry is laid out as: length (int), CRC32 of the body (int), body. The body is the type (byte), the id
+ * (long) and, for appended messages, the creation time and the fields of the request.
+ */
+public class OutboxJournal {
+    private static final Log LOG = Log.get(OutboxJournal.class);
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".log";
+    private static final byte TYPE_APPEND = 1;
+    private static final byte TYPE_DONE = 2;
+    // length and checksum
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+    private final JournalConfig config;
+    private final ScheduledExecutorService syncTimer;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Map<NabaztagRequest, Entry> entries = new IdentityHashMap<NabaztagRequest, Entry>();
+    // segments which could not be deleted yet, e.g. as they are still mapped on Windows
+    private final List<File> obsolete = new ArrayList<File>();
+    private final List<NabaztagRequest> recovered;
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private long nextId = 1;
+    private long nextSegment = 1;
+    private volatile boolean dirty;
+    private boolean closed;
+
+    /**
+     * This method opens the journal in the given directory and recovers the pending messages
+     *
+     * @param directory The directory of the segment files, created if necessary
+     * @param config    The settings
+     * @throws IOException if the directory or a segment can not be created
+     */
+    public OutboxJournal(File directory, JournalConfig config) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+
+        List<File> files = listSegments();
+        // by id, compacted entries come back in their original order
+        Map<Long, NabaztagRequest> pending = new TreeMap<Long, NabaztagRequest>();
+        for (File file : files) {
+            readSegment(file, pending);
+        }
+
+        roll(0);
+        long now = System.currentTimeMillis();
+        List<NabaztagRequest> unexpired = new ArrayList<NabaztagRequest>();
+        synchronized (this) {
+            for (NabaztagRequest request : pending.values()) {
+                if (!request.isExpired(now)) {
+                    append(request);
+                    unexpired.add(request);
+                }
+            }
+            active.buffer.force();
+        }
+        for (File file : files) {
+            delete(file);
+        }
+        this.recovered = Collections.unmodifiableList(unexpired);
+
+        this.syncTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buildbunny-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, config.getSyncIntervalMillis());
+        syncTimer.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The messages which were pending when the journal was last closed, they are journaled again
+     */
+    public List<NabaztagRequest> recover() {
+        return recovered;
+    }
+
+    /**
+     * This method hands the recovered messages on, whichever node owns their rabbits now. The journal of this
+     * node is their only copy: a message told twice is better than one lost.
+     *
+     * @param sink The sink to publish the messages, they are journaled already
+     * @return The number of messages accepted by the sink
+     */
+    public int replay(MessageSink sink) {
+        int accepted = 0;
+        for (NabaztagRequest request : recovered) {
+            if (sink.submit(request)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * This method records a message before it is dispatched
+     *
+     * @param request The message
+     */
+    public synchronized void append(NabaztagRequest request) {
+        if (closed || entries.containsKey(request)) {
+            return;
+        }
+        long id = nextId++;
+        ByteBuffer body = encode(TYPE_APPEND, id, request);
+        if (!write(body)) {
+            LOG.warn("-- JOURNAL WRITE FAILED, MESSAGE NOT JOURNALED --");
+            return;
+        }
+        Entry entry = new Entry(id, request, active);
+        active.live++;
+        entries.put(request, entry);
+    }
+
+    /**
+     * This method marks a message as done, it will not be recovered anymore
+     *
+     * @param request The message
+     */
+    public synchronized void complete(NabaztagRequest request) {
+        Entry entry = entries.remove(request);
+        if (entry == null || closed) {
+            return;
+        }
+        write(encode(TYPE_DONE, entry.id, null));
+        entry.segment.live--;
+
+        // segments are deleted oldest first, a done mark must not outlive the entry it refers to
+        while (segments.get(0) != active && segments.get(0).live == 0) {
+            delete(segments.remove(0).file);
+        }
+    }
+
+    /**
+     * @return The number of journaled messages which are not done
+     */
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of segment files in use
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * This method forces the journal to disk and stops the sync thread. Pending messages stay in the journal.
+     */
+    public void close() {
+        syncTimer.shutdownNow();
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                active.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Forces the active segment to disk if anything was written since the last sync. The segment is forced
+     * outside the lock, appending continues meanwhile.
+     */
+    private void sync() {
+        if (!dirty) {
+            return;
+        }
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            dirty = false;
+            buffer = active.buffer;
+        }
+        buffer.force();
+    }
+
+    /**
+     * Writes an entry into the active segment, starting a new segment if it is full
+     *
+     * @return false if the entry is larger than a segment or there is no room for it
+     */
+    private boolean write(ByteBuffer body) {
+        // a trailing zero length marks the end of the segment
+        if (HEADER_SIZE + body.remaining() + 4 > config.getSegmentSize()) {
+            return false;
+        }
+        try {
+            if (!fits(body)) {
+                roll(HEADER_SIZE + body.remaining());
+            }
+        } catch (IOException e) {
+            LOG.error("-- JOURNAL SEGMENT EXCEPTION --", e);
+            return false;
+        }
+        if (!fits(body)) {
+            // the compaction filled the new segment
+            return false;
+        }
+        put(body);
+        return true;
+    }
+
+    private boolean fits(ByteBuffer body) {
+        return active.buffer.remaining() >= HEADER_SIZE + body.remaining() + 4;
+    }
+
+    private void put(ByteBuffer body) {
+        crc.reset();
+        crc.update(body.array(), 0, body.limit());
+        active.buffer.putInt(body.remaining());
+        active.buffer.putInt((int) crc.getValue());
+        active.buffer.put(body);
+        dirty = true;
+    }
+
+    /**
+     * Starts a new segment and compacts the oldest segment if there are too many. The live entries of the
+     * oldest segment are copied with their ids, but only if they fit into the new segment next to the entry
+     * being written; otherwise the oldest segment stays.
+     *
+     * @param reserve The bytes needed by the entry being written
+     */
+    private synchronized void roll(int reserve) throws IOException {
+        open();
+        if (segments.size() <= Math.max(2, config.getMaxSegments())) {
+            return;
+        }
+        Segment oldest = segments.get(0);
+        List<Entry> live = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (entry.segment == oldest) {
+                live.add(entry);
+            }
+        }
+        Collections.sort(live, (a, b) -> Long.compare(a.id, b.id));
+        List<ByteBuffer> bodies = new ArrayList<ByteBuffer>();
+        int size = reserve + 4;
+        for (Entry entry : live) {
+            ByteBuffer body = encode(TYPE_APPEND, entry.id, entry.request);
+            bodies.add(body);
+            size += HEADER_SIZE + body.remaining();
+        }
+        if (size > active.buffer.remaining()) {
+            // mostly live, copying it would free nothing
+            return;
+        }
+        segments.remove(0);
+        for (int i = 0; i < live.size(); i++) {
+            Entry entry = live.get(i);
+            put(bodies.get(i));
+            active.live++;
+            entries.put(entry.request, new Entry(entry.id, entry.request, active));
+        }
+        delete(oldest.file);
+    }
+
+    /**
+     * Starts a new active segment
+     */
+    private void open() throws IOException {
+        if (active != null) {
+            active.buffer.force();
+        }
+        File file = new File(directory, String.format("%s%016d%s", PREFIX, nextSegment++, SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(config.getSegmentSize());
+            active = new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, config.getSegmentSize()));
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+        segments.add(active);
+
+        for (File old : new ArrayList<File>(obsolete)) {
+            if (old.delete() || !old.exists()) {
+                obsolete.remove(old);
+            }
+        }
+    }
+
+    private void readSegment(File file, Map<Long, NabaztagRequest> pending) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            ByteBuffer data;
+            try {
+                data = ByteBuffer.allocate((int) raf.length());
+                FileChannel channel = raf.getChannel();
+                while (data.hasRemaining()) {
+                    if (channel.read(data) < 0) {
+                        break;
+                    }
+                }
+                data.flip();
+            } finally {
+                raf.close();
+            }
+
+            while (data.remaining() >= HEADER_SIZE) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(data.array(), data.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    // torn write at the time of a crash
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.wrap(data.array(), data.position(), length).slice();
+                data.position(data.position() + length);
+
+                byte type = body.get();
+                long id = body.getLong();
+                nextId = Math.max(nextId, id + 1);
+                if (type == TYPE_APPEND) {
+                    pending.put(id, decode(body));
+                } else if (type == TYPE_DONE) {
+                    pending.remove(id);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("-- JOURNAL READ EXCEPTION " + file + " --", e);
+        } catch (BufferUnderflowException e) {
+            LOG.warn("-- JOURNAL CORRUPT " + file + " --", e);
+        }
+
+        String name = file.getName();
+        try {
+            long number = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            nextSegment = Math.max(nextSegment, number + 1);
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    private List<File> listSegments() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    private void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            obsolete.add(file);
+        }
+    }
+
+    private static ByteBuffer encode(byte type, long id, NabaztagRequest request) {
+        if (request == null) {
+            ByteBuffer body = ByteBuffer.allocate(9);
+            body.put(type).putLong(id);
+            body.flip();
+            return body;
+        }
+
+        RabbitEndpoint endpoint = request.getEndpoint();
+        byte[][] strings = {bytes(endpoint.getRabbitID()), bytes(endpoint.getToken()), bytes(endpoint.getTimeToLive()),
+                bytes(request.getText()), bytes(request.getVoice()), bytes(request.getEars()), bytes(request.getAction()),
+                bytes(endpoint.getApiUrl()), bytes(request.getPriority().name()), bytes(request.getTopic())};
+        int size = 17;
+        for (byte[] string : strings) {
+            size += 4 + (string != null ? string.length : 0);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put(type).putLong(id).putLong(request.getCreatedMillis());
+        for (byte[] string : strings) {
+            if (string == null) {
+                body.putInt(-1);
+            } else {
+                body.putInt(string.length).put(string);
+            }
+        }
+        body.flip();
+        return body;
+    }
+
+    private static NabaztagRequest decode(ByteBuffer body) {
+        long createdMillis = body.getLong();
+        String rabbitID = string(body);
+        String token = string(body);
+        String timeToLive = string(body);
+        String text = string(body);
+        String voice = string(body);
+        String ears = string(body);
+        String action = string(body);
+        // later fields are appended, entries of older versions end before them and use the defaults
+        String apiUrl = body.hasRemaining() ? string(body) : null;
+        String priority = body.hasRemaining() ? string(body) : null;
+        String topic = body.hasRemaining() ? string(body) : null;
+        return new NabaztagRequest(new RabbitEndpoint(apiUrl, rabbitID, token, timeToLive), text, voice, ears, action, createdMillis,
+                priority != null ? MessagePriority.valueOf(priority) : null, topic);
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String string(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        // number of entries in this segment which are not done
+        private int live;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Entry {
+        private final long id;
+        private final NabaztagRequest request;
+        private final Segment segment;
+
+        private Entry(long id, NabaztagRequest request, Segment segment) {
+            this.id = id;
+            this.request = request;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.agimatec.nabaztag.dispatch;
+
+/**
+ * Defines what the dispatcher does with a new message when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Evict the oldest queued message of the lowest priority to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new message and keep the queue as it is
+     */
+    DROP_NEWEST,
+    /**
+     * Wait up to the configured offer timeout for free space, then discard the new message
+     */
+    BLOCK
+}
@@ -0,0 +1,66 @@
+package com.agimatec.nabaztag.dispatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A token bucket per rabbit. A rabbit may receive a burst of messages, after that the messages are spread
+ * out to the configured rate. A message which finds the bucket empty reserves the next free token, so
+ * throttled messages keep their order.
+ */
+public class RateLimiter {
+    private final int burst;
+    private final double tokensPerMilli;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * @param burst     The number of messages a rabbit may receive at once
+     * @param perMinute The number of messages a rabbit may receive per minute, 0 for no limit
+     */
+    public RateLimiter(int burst, int perMinute) {
+        this.burst = Math.max(1, burst);
+        this.tokensPerMilli = perMinute / 60000.0;
+    }
+
+    /**
+     * This method takes a token for a message to the rabbit, or reserves the next free one
+     *
+     * @param rabbitID      The serial number of the rabbit
+     * @param nowMillis     The current time
+     * @param maxWaitMillis The longest acceptable wait for a token
+     * @return 0 if the message may be sent now, the time to wait for the reserved token, or -1 if there is no
+     *         token within maxWaitMillis, in which case nothing is reserved
+     */
+    public long reserve(String rabbitID, long nowMillis, long maxWaitMillis) {
+        if (tokensPerMilli <= 0) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.computeIfAbsent(String.valueOf(rabbitID), id -> new TokenBucket(nowMillis));
+        return bucket.reserve(nowMillis, maxWaitMillis);
+    }
+
+    private class TokenBucket {
+        // negative when tokens are reserved
+        private double tokens;
+        private long lastRefillMillis;
+
+        private TokenBucket(long nowMillis) {
+            this.tokens = burst;
+            this.lastRefillMillis = nowMillis;
+        }
+
+        private synchronized long reserve(long nowMillis, long maxWaitMillis) {
+            if (nowMillis > lastRefillMillis) {
+                tokens = Math.min(burst, tokens + (nowMillis - lastRefillMillis) * tokensPerMilli);
+                lastRefillMillis = nowMillis;
+            }
+            double missing = 1 - tokens;
+            long wait = missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerMilli);
+            if (wait > maxWaitMillis) {
+                return -1;
+            }
+            tokens -= 1;
+            return wait;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.agimatec.nabaztag.dispatch;
+
+import com.agimatec.nabaztag.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ownership of the rabbits when several TeamCity nodes share the data directory. The rabbits are spread
+ * over a fixed number of shards, and every shard is leased by one node, which alone sends the messages to its
+ * rabbits. The other nodes discard them, so a rabbit does not speak once per node.
+ * <p/>
+ * Every shard has a lease file in the shared directory, holding the owner and the time of its last heartbeat.
+ * It is only read and written under a file lock, and within one JVM also under a lock per file, as file locks
+ * belong to the whole JVM. A node renews its leases every heartbeat. A lease which was not renewed for the lease
+ * time is taken over by another node, so the rabbits of a failed node get a new owner within seconds. Every node
+ * also writes a heartbeat file, and takes at most its share of the shards of all live nodes; a node which owns
+ * more hands the rest over, so the shards are balanced again when a node joins. A shard which is handed over is
+ * marked as releasing, and its owner keeps sending to its rabbits until another node took it. No message is lost
+ * during a handover, but a rabbit may hear one twice until the old owner notices the new one with its next heartbeat.
+ * <p/>
+ * The heartbeats compare the clocks of the nodes, which have to differ by much less than the lease time.
+ */
+public class ShardLeases {
+    private static final Log LOG = Log.get(ShardLeases.class);
+    private static final String NODE_SUFFIX = ".node";
+    // the third line of the lease file of a shard which is handed over
+    private static final String RELEASING = "releasing";
+    // the heartbeat files of nodes which were gone for this number of lease times are deleted
+    private static final int NODE_FILE_LEASES = 10;
+    // the locks of the lease files within this JVM, by path
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File directory;
+    private final String nodeId;
+    private final LeaseConfig config;
+    // the time each owned shard was renewed, by shard
+    private final ConcurrentMap<Integer, Long> owned = new ConcurrentHashMap<Integer, Long>();
+    // the owned shards which are handed over to another node
+    private final Set<Integer> releasing = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param directory The directory shared by all nodes
+     * @param nodeId    The unique name of this node
+     * @param config    The settings, the same on all nodes
+     * @throws IOException if the directory could not be created
+     */
+    public ShardLeases(File directory, String nodeId, LeaseConfig config) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Lease directory could not be created: " + directory);
+        }
+        this.directory = directory.getCanonicalFile();
+        this.nodeId = nodeId;
+        this.config = config;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buildbunny-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This method takes the free shards and starts the heartbeats
+     */
+    public void start() {
+        heartbeat(System.currentTimeMillis());
+        timer.scheduleWithFixedDelay(() -> heartbeat(System.currentTimeMillis()), config.getHeartbeatMillis(),
+                config.getHeartbeatMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method stops the heartbeats and releases the leases, so the other nodes take over at once
+     */
+    public synchronized void close() {
+        timer.shutdownNow();
+        for (Integer shard : owned.keySet()) {
+            try {
+                release(shard);
+            } catch (IOException e) {
+                LOG.error("-- LEASE OF SHARD " + shard + " COULD NOT BE RELEASED --", e);
+            }
+        }
+        owned.clear();
+        releasing.clear();
+        new File(directory, nodeId + NODE_SUFFIX).delete();
+    }
+
+    /**
+     * @param rabbitID The serial number of the rabbit
+     * @return true if this node sends the messages to the rabbit
+     */
+    public boolean isOwner(String rabbitID) {
+        return isOwner(rabbitID, System.currentTimeMillis());
+    }
+
+    /**
+     * @param rabbitID The serial number of the rabbit
+     * @param now      The current time
+     * @return true if this node owns the shard of the rabbit and the lease did not run out since it was renewed
+     */
+    public boolean isOwner(String rabbitID, long now) {
+        Long renewed = owned.get(shardOf(rabbitID));
+        return renewed != null && now - renewed < config.getLeaseMillis();
+    }
+
+    /**
+     * @return The shard of the rabbit, the same on all nodes
+     */
+    public int shardOf(String rabbitID) {
+        return Math.floorMod(String.valueOf(rabbitID).hashCode(), Math.max(1, config.getShards()));
+    }
+
+    /**
+     * @return The shards owned by this node, including the shards it is handing over
+     */
+    public Set<Integer> getOwnedShards() {
+        return new TreeSet<Integer>(owned.keySet());
+    }
+
+    /**
+     * @return The shards this node is handing over, it owns them until another node took them
+     */
+    public Set<Integer> getReleasingShards() {
+        return new TreeSet<Integer>(releasing);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * This method renews the leases of this node, takes over free, expired and releasing shards up to its share
+     * and hands the shards beyond it over. It is called every heartbeat interval.
+     *
+     * @param now The current time
+     */
+    public synchronized void heartbeat(long now) {
+        int shards = Math.max(1, config.getShards());
+        int nodes;
+        try {
+            writeNode(now);
+            nodes = liveNodes(now);
+        } catch (IOException e) {
+            LOG.errorLimited(nodeId, "-- LEASE HEARTBEAT FAILED --", e);
+            return;
+        }
+        int share = (shards + nodes - 1) / nodes;
+
+        for (int shard = 0; shard < shards; shard++) {
+            try {
+                renew(shard, now, share);
+            } catch (IOException e) {
+                LOG.errorLimited(nodeId, "-- LEASE OF SHARD " + shard + " FAILED --", e);
+            }
+        }
+    }
+
+    // the file lock is only held for the try block, it is not referenced in it
+    @SuppressWarnings("try")
+    private void renew(int shard, long now, int share) throws IOException {
+        File file = leaseFile(shard);
+        synchronized (jvmLock(file)) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE); FileLock ignored = channel.lock()) {
+                Lease lease = read(channel);
+                // the shards this node keeps, without the ones it hands over
+                int kept = owned.size() - releasing.size();
+                if (nodeId.equals(lease.owner)) {
+                    boolean release = releasing.contains(shard) ? kept >= share : kept + (owned.containsKey(shard) ? 0 : 1) > share;
+                    write(channel, nodeId, now, release);
+                    owned.put(shard, now);
+                    if (release && releasing.add(shard)) {
+                        LOG.info("-- LEASE OF SHARD " + shard + " HANDED OVER TO BALANCE THE NODES --");
+                    } else if (!release) {
+                        releasing.remove(shard);
+                    }
+                } else if ((lease.owner == null || lease.releasing || now - lease.heartbeatMillis >= config.getLeaseMillis()) && kept < share) {
+                    write(channel, nodeId, now, false);
+                    owned.put(shard, now);
+                    releasing.remove(shard);
+                    LOG.info("-- LEASE OF SHARD " + shard + " ACQUIRED" + (lease.owner != null ? " FROM " + lease.owner : "") + " --");
+                } else if (owned.remove(shard) != null) {
+                    if (releasing.remove(shard)) {
+                        LOG.info("-- LEASE OF SHARD " + shard + " TAKEN OVER BY " + lease.owner + " --");
+                    } else {
+                        LOG.warn("-- LEASE OF SHARD " + shard + " LOST TO " + lease.owner + " --");
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void release(int shard) throws IOException {
+        File file = leaseFile(shard);
+        synchronized (jvmLock(file)) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                if (nodeId.equals(read(channel).owner)) {
+                    write(channel, null, 0, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method writes the heartbeat of this node. The file is replaced at once, so the other nodes never
+     * read it half written.
+     */
+    private void writeNode(long now) throws IOException {
+        File temporary = new File(directory, nodeId + NODE_SUFFIX + ".tmp");
+        Files.write(temporary.toPath(), Long.toString(now).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), new File(directory, nodeId + NODE_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The number of nodes with a recent heartbeat, including this one
+     */
+    private int liveNodes(long now) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(NODE_SUFFIX));
+        int live = 0;
+        for (File file : files != null ? files : new File[0]) {
+            long heartbeatMillis;
+            try {
+                heartbeatMillis = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+            } catch (IOException | NumberFormatException e) {
+                // removed or replaced in the meantime
+                continue;
+            }
+            if (now - heartbeatMillis < config.getLeaseMillis()) {
+                live++;
+            } else if (now - heartbeatMillis > NODE_FILE_LEASES * config.getLeaseMillis()) {
+                file.delete();
+            }
+        }
+        return Math.max(1, live);
+    }
+
+    private File leaseFile(int shard) {
+        return new File(directory, "shard-" + shard + ".lease");
+    }
+
+    private static Object jvmLock(File file) {
+        return JVM_LOCKS.computeIfAbsent(file.getPath(), path -> new Object());
+    }
+
+    private static Lease read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // read until the buffer is full
+        }
+        String[] lines = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).split("\n");
+        if (lines.length < 2 || lines[0].length() == 0) {
+            return new Lease(null, 0, false);
+        }
+        try {
+            return new Lease(lines[0], Long.parseLong(lines[1].trim()), lines.length > 2 && lines[2].trim().equals(RELEASING));
+        } catch (NumberFormatException e) {
+            return new Lease(null, 0, false);
+        }
+    }
+
+    private static void write(FileChannel channel, String owner, long heartbeatMillis, boolean releasing) throws IOException {
+        channel.truncate(0);
+        if (owner != null) {
+            String lease = owner + "\n" + heartbeatMillis + "\n" + (releasing ? RELEASING + "\n" : "");
+            ByteBuffer buffer = ByteBuffer.wrap(lease.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        channel.force(false);
+    }
+
+    /**
+     * The content of a lease file
+     */
+    private static class Lease {
+        // null if the shard is free
+        private final String owner;
+        private final long heartbeatMillis;
+        // true if the owner hands the shard over to the next node which wants it
+        private final boolean releasing;
+
+        private Lease(String owner, long heartbeatMillis, boolean releasing) {
+            this.owner = owner;
+            this.heartbeatMillis = heartbeatMillis;
+            this.releasing = releasing;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.agimatec.nabaztag.log;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This appender writes log events on its own daemon thread, so logging never waits for the console.
+ * Events are kept in a bounded queue; when it is full, new events are counted and discarded. Events of
+ * level WARN and above go to the error stream, the others to the output stream.
+ */
+public class AsyncAppender implements LogAppender {
+    private static final int BATCH_SIZE = 64;
+
+    private final BlockingQueue<LogEvent> queue;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final AtomicLong dropped = new AtomicLong();
+    // format is only used by the appender thread
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    private final Object written = new Object();
+    private long appendedCount;
+    private long writtenCount;
+
+    public AsyncAppender(int capacity, PrintStream out, PrintStream err) {
+        this.queue = new ArrayBlockingQueue<LogEvent>(Math.max(1, capacity));
+        this.out = out;
+        this.err = err;
+
+        Thread thread = new Thread(this::run, "buildbunny-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method queues an event, it never blocks
+     *
+     * @param event The event
+     */
+    public void append(LogEvent event) {
+        synchronized (written) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            appendedCount++;
+        }
+    }
+
+    /**
+     * This method waits until the events queued so far are written
+     *
+     * @param timeoutMillis The maximum time to wait
+     */
+    public void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (written) {
+            long target = appendedCount;
+            while (writtenCount < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    written.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of events which were discarded, as the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void run() {
+        List<LogEvent> batch = new ArrayList<LogEvent>(BATCH_SIZE);
+        while (true) {
+            try {
+                LogEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (LogEvent event : batch) {
+                    write(event);
+                }
+                out.flush();
+                err.flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // a failing toString of a message must not stop the appender
+            }
+
+            synchronized (written) {
+                writtenCount += batch.size();
+                written.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(LogEvent event) {
+        PrintStream stream = event.getLevel().compareTo(LogLevel.WARN) >= 0 ? err : out;
+        stream.println(format.format(new Date(event.getTimeMillis())) + " " + event.getLevel()
+                + " [" + event.getThread() + "] " + event.getLogger() + " - " + event.getMessage());
+        if (event.getThrowable() != null) {
+            event.getThrowable().printStackTrace(stream);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.agimatec.nabaztag.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * The log of the plugin. Messages below the configured level are discarded before they are built: debug
+ * messages which are expensive to build are passed as a {@link Supplier}. The remaining messages are
+ * written by the configured {@link LogAppender}; in TeamCity that is the server log. Without one they are
+ * written to the console by an {@link AsyncAppender}, so logging does not wait for the console.
+ * <p/>
+ * Errors which repeat for one rabbit are logged once per error interval, the next message tells how many
+ * were suppressed in between.
+ */
+public final class Log {
+    private static final int APPENDER_CAPACITY = 1024;
+    private static final long DEFAULT_ERROR_INTERVAL_MILLIS = 60000;
+    // the suppression state is cleared when it grows beyond this
+    private static final int MAX_SUPPRESSED_KEYS = 1000;
+
+    private static volatile LogLevel level = LogLevel.INFO;
+    private static volatile long errorIntervalMillis = DEFAULT_ERROR_INTERVAL_MILLIS;
+    private static volatile LogAppender appender;
+    private static final ConcurrentMap<String, Suppression> SUPPRESSIONS = new ConcurrentHashMap<String, Suppression>();
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param type The class which logs
+     * @return The log named after the class
+     */
+    public static Log get(Class<?> type) {
+        return new Log(type.getSimpleName());
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setLevel(LogLevel level) {
+        Log.level = level;
+    }
+
+    /**
+     * @param errorIntervalMillis The minimum time between two logged occurrences of the same error of a rabbit
+     */
+    public static void setErrorInterval(long errorIntervalMillis) {
+        Log.errorIntervalMillis = errorIntervalMillis;
+        SUPPRESSIONS.clear();
+    }
+
+    /**
+     * @param appender The appender of all logs, null for the console
+     */
+    public static void setAppender(LogAppender appender) {
+        Log.appender = appender;
+    }
+
+    /**
+     * This method waits until the messages logged so far are written
+     */
+    public static void flush() {
+        LogAppender current = appender;
+        if (current != null) {
+            current.flush(1000);
+        }
+    }
+
+    public boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != LogLevel.OFF;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null);
+    }
+
+    /**
+     * @param message Builds the message, only called if debug is enabled
+     */
+    public void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            append(LogLevel.DEBUG, message.get(), null);
+        }
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    public void warn(String message, Throwable throwable) {
+        log(LogLevel.WARN, message, throwable);
+    }
+
+    public void error(String message, Throwable throwable) {
+        log(LogLevel.ERROR, message, throwable);
+    }
+
+    /**
+     * This method logs an error of a rabbit, unless the same error of that rabbit was logged within the
+     * error interval
+     *
+     * @param rabbitID  The serial number of the rabbit
+     * @param message   The error, identical errors have identical messages
+     * @param throwable The exception, may be null
+     */
+    public void errorLimited(String rabbitID, String message, Throwable throwable) {
+        errorLimited(rabbitID, message, throwable, System.currentTimeMillis());
+    }
+
+    /**
+     * @param rabbitID  The serial number of the rabbit
+     * @param message   The error, identical errors have identical messages
+     * @param throwable The exception, may be null
+     * @param nowMillis The current time
+     */
+    public void errorLimited(String rabbitID, String message, Throwable throwable, long nowMillis) {
+        if (!isEnabled(LogLevel.ERROR)) {
+            return;
+        }
+        if (SUPPRESSIONS.size() >= MAX_SUPPRESSED_KEYS) {
+            SUPPRESSIONS.clear();
+        }
+        Suppression suppression = SUPPRESSIONS.computeIfAbsent(name + '|' + rabbitID + '|' + message, key -> new Suppression());
+        int suppressed = suppression.tryLog(nowMillis, errorIntervalMillis);
+        if (suppressed < 0) {
+            return;
+        }
+        append(LogLevel.ERROR, suppressed > 0 ? message + " (" + suppressed + " times since last report)" : message, throwable);
+    }
+
+    private void log(LogLevel messageLevel, String message, Throwable throwable) {
+        if (isEnabled(messageLevel)) {
+            append(messageLevel, message, throwable);
+        }
+    }
+
+    private void append(LogLevel messageLevel, String message, Throwable throwable) {
+        LogAppender current = appender;
+        if (current == null) {
+            synchronized (Log.class) {
+                if (appender == null) {
+                    appender = new AsyncAppender(APPENDER_CAPACITY, System.out, System.err);
+                }
+                current = appender;
+            }
+        }
+        current.append(new LogEvent(messageLevel, name, message, throwable));
+    }
+
+    private static class Suppression {
+        private long lastLoggedMillis = Long.MIN_VALUE;
+        private int suppressed;
+
+        /**
+         * @return The number of suppressed occurrences to report if the error is logged now, -1 if not
+         */
+        private synchronized int tryLog(long nowMillis, long intervalMillis) {
+            if (lastLoggedMillis != Long.MIN_VALUE && nowMillis - lastLoggedMillis < intervalMillis) {
+                suppressed++;
+                return -1;
+            }
+            int count = suppressed;
+            lastLoggedMillis = nowMillis;
+            suppressed = 0;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.agimatec.nabaztag.log;
+
+/**
+ * Writes the {@link LogEvent}s of the {@link Log}, e.g. to the console or to the log of the TeamCity server.
+ */
+public interface LogAppender {
+    /**
+     * This method writes or queues an event, it must not wait for slow output
+     *
+     * @param event The event
+     */
+    void append(LogEvent event);
+
+    /**
+     * This method waits until the events appended so far are written
+     *
+     * @param timeoutMillis The maximum time to wait
+     */
+    void flush(long timeoutMillis);
+}
@@ -0,0 +1,46 @@
+package com.agimatec.nabaztag.log;
+
+/**
+ * One log message, formatted by the {@link LogAppender}, possibly on its own thread.
+ */
+public final class LogEvent {
+    private final long timeMillis;
+    private final LogLevel level;
+    private final String logger;
+    private final String thread;
+    private final String message;
+    private final Throwable throwable;
+
+    public LogEvent(LogLevel level, String logger, String message, Throwable throwable) {
+        this.timeMillis = System.currentTimeMillis();
+        this.level = level;
+        this.logger = logger;
+        this.thread = Thread.currentThread().getName();
+        this.message = message;
+        this.throwable = throwable;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    public String getLogger() {
+        return logger;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Throwable getThrowable() {
+        return throwable;
+    }
+}
@@ -0,0 +1,8 @@
+package com.agimatec.nabaztag.log;
+
+/**
+ * The levels of the plugin log, from the most to the least verbose
+ */
+public enum LogLevel {
+    DEBUG, INFO, WARN, ERROR, OFF
+}
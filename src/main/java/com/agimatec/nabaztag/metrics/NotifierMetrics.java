@@ -0,0 +1,261 @@
+package com.agimatec.nabaztag.metrics;
+
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.dispatch.MessageCoalescer;
+import com.agimatec.nabaztag.dispatch.NabaztagDispatcher;
+import com.agimatec.nabaztag.log.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the notifier pipeline: results and latencies of the calls to the Nabaztag API, the state of
+ * the dispatcher, template render times and the fan-out of the events. Recording uses only lock-free
+ * counters and {@link Histogram}s, so it is cheap enough for every call.
+ * <p/>
+ * The dispatcher, the coalescer and the publisher are read when the metrics are queried, they are not copied.
+ */
+public class NotifierMetrics implements NotifierMetricsMBean {
+    private static final Log LOG = Log.get(NotifierMetrics.class);
+    public static final String OBJECT_NAME = "buildbunny:type=NotifierMetrics";
+    // latencies of more rabbits are only recorded in the total
+    private static final int MAX_RABBITS = 1000;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder circuitOpen = new LongAdder();
+    private final Histogram publishLatency = new Histogram();
+    private final ConcurrentMap<String, Histogram> publishLatencyByRabbit = new ConcurrentHashMap<String, Histogram>();
+    private final Histogram renderTime = new Histogram();
+    private final Histogram fanOutSize = new Histogram();
+    private final LongAdder recipients = new LongAdder();
+    private final LongAdder savedCalls = new LongAdder();
+    private volatile NabaztagDispatcher dispatcher;
+    private volatile MessageCoalescer coalescer;
+    private volatile NabaztagPublisher publisher;
+
+    /**
+     * This method records the result of a call to the Nabaztag API
+     *
+     * @param rabbitID The serial number of the rabbit
+     * @param result   The result of the call
+     */
+    public void recordPublish(String rabbitID, PublishResult result) {
+        switch (result.getStatus()) {
+            case SENT:
+                sent.increment();
+                break;
+            case REJECTED:
+                rejected.increment();
+                break;
+            case TIMED_OUT:
+                timedOut.increment();
+                break;
+            case CIRCUIT_OPEN:
+                circuitOpen.increment();
+                // no call was made
+                return;
+            default:
+                failed.increment();
+        }
+
+        publishLatency.record(result.getLatencyMillis());
+        String key = String.valueOf(rabbitID);
+        Histogram histogram = publishLatencyByRabbit.get(key);
+        if (histogram == null && publishLatencyByRabbit.size() < MAX_RABBITS) {
+            histogram = publishLatencyByRabbit.computeIfAbsent(key, id -> new Histogram());
+        }
+        if (histogram != null) {
+            histogram.record(result.getLatencyMillis());
+        }
+    }
+
+    /**
+     * @param nanos The time it took to render a message
+     */
+    public void recordRenderTime(long nanos) {
+        renderTime.record(nanos / 1000);
+    }
+
+    /**
+     * @param recipients The number of deliveries rendered for the recipients of an event
+     * @param calls      The number of calls the event resulted in, after deliveries to the same rabbit were merged
+     */
+    public void recordFanOut(int recipients, int calls) {
+        fanOutSize.record(calls);
+        this.recipients.add(recipients);
+        savedCalls.add(recipients - calls);
+    }
+
+    public void setDispatcher(NabaztagDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void setCoalescer(MessageCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public void setPublisher(NabaztagPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * This method registers the metrics with the platform MBean server. Failures are logged, not thrown.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            LOG.error("-- METRICS REGISTRATION EXCEPTION --", e);
+        }
+    }
+
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+        }
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long getCircuitOpenCount() {
+        return circuitOpen.sum();
+    }
+
+    public int getQueueDepth() {
+        NabaztagDispatcher current = dispatcher;
+        return current != null ? current.getQueueDepth() : 0;
+    }
+
+    public long getDroppedCount() {
+        NabaztagDispatcher current = dispatcher;
+        return current != null ? current.getDroppedCount() : 0;
+    }
+
+    public long getThrottledCount() {
+        NabaztagDispatcher current = dispatcher;
+        return current != null ? current.getThrottledCount() : 0;
+    }
+
+    public long getExpiredCount() {
+        NabaztagDispatcher current = dispatcher;
+        return current != null ? current.getExpiredCount() : 0;
+    }
+
+    public long getSupersededCount() {
+        NabaztagDispatcher current = dispatcher;
+        return current != null ? current.getSupersededCount() : 0;
+    }
+
+    /**
+     * @return The number of messages which were merged into a summary or replaced in the coalescing window
+     */
+    public long getCoalescedCount() {
+        MessageCoalescer current = coalescer;
+        return current != null ? current.getCoalescedCount() : 0;
+    }
+
+    /**
+     * @return The number of deliveries rendered for the recipients of the events
+     */
+    public long getRecipientCount() {
+        return recipients.sum();
+    }
+
+    /**
+     * @return The number of calls saved because recipients share a rabbit
+     */
+    public long getSavedCalls() {
+        return savedCalls.sum();
+    }
+
+    public String getPublishLatency() {
+        return publishLatency.toString();
+    }
+
+    public String[] getPublishLatencyByRabbit() {
+        Map<String, Histogram> sorted = new TreeMap<String, Histogram>(publishLatencyByRabbit);
+        List<String> lines = new ArrayList<String>(sorted.size());
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * @return The latencies of the calls to one rabbit, null if none were recorded
+     */
+    public Histogram getPublishLatency(String rabbitID) {
+        return publishLatencyByRabbit.get(rabbitID);
+    }
+
+    public String getRenderTime() {
+        return renderTime.toString();
+    }
+
+    public String getFanOutSize() {
+        return fanOutSize.toString();
+    }
+
+    public String[] getCircuitStates() {
+        NabaztagPublisher current = publisher;
+        if (current == null) {
+            return new String[0];
+        }
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, ?> entry : current.getCircuitStates().entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public void reset() {
+        sent.reset();
+        rejected.reset();
+        failed.reset();
+        timedOut.reset();
+        circuitOpen.reset();
+        publishLatency.reset();
+        publishLatencyByRabbit.clear();
+        renderTime.reset();
+        fanOutSize.reset();
+        recipients.reset();
+        savedCalls.reset();
+    }
+}
@@ -0,0 +1,45 @@
+package com.agimatec.nabaztag.metrics;
+
+/**
+ * The JMX view of the {@link NotifierMetrics}, registered as buildbunny:type=NotifierMetrics.
+ * Latencies are in milliseconds, render times in microseconds.
+ */
+public interface NotifierMetricsMBean {
+    long getSentCount();
+
+    long getRejectedCount();
+
+    long getFailedCount();
+
+    long getTimedOutCount();
+
+    long getCircuitOpenCount();
+
+    int getQueueDepth();
+
+    long getDroppedCount();
+
+    long getThrottledCount();
+
+    long getExpiredCount();
+
+    long getSupersededCount();
+
+    long getCoalescedCount();
+
+    long getRecipientCount();
+
+    long getSavedCalls();
+
+    String getPublishLatency();
+
+    String[] getPublishLatencyByRabbit();
+
+    String getRenderTime();
+
+    String getFanOutSize();
+
+    String[] getCircuitStates();
+
+    void reset();
+}
@@ -0,0 +1,205 @@
+package com.agimatec.nabaztag.teamcity;
+
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserSet;
+import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import jetbrains.buildServer.vcs.VcsModification;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The values derived from a build for its notification messages. Each value is computed on first use and then
+ * shared by all recipients of the event, and by later events of the same build through the
+ * {@link RenderContextCache}.
+ * <p/>
+ * Committers and comments are aggregated up to a budget of characters, the longest message one of the
+ * recipients hears: a large merge stops being read once the budget is filled, instead of building a text no
+ * rabbit would speak. A later event with a recipient who hears longer messages widens the budget. Comments which
+ * do not fit can be summarized as "and 312 more changes". Committers are named once, even if they made several
+ * changes.
+ */
+public class BuildRenderContext {
+    private final Build build;
+    // maximum length of the committers and comments, negative for no limit
+    private int budget;
+    // true to end cut comments with the number of changes left out
+    private final boolean summarize;
+
+    private String projectName;
+    private boolean triggeredByResolved;
+    private String triggeredBy;
+    private String committers;
+    private String comments;
+
+    public BuildRenderContext(Build build) {
+        this(build, -1, true);
+    }
+
+    /**
+     * @param build     The build
+     * @param budget    The maximum length of the committers and comments, negative for no limit
+     * @param summarize true to add the number of changes left out to cut comments
+     */
+    public BuildRenderContext(Build build, int budget, boolean summarize) {
+        this.build = build;
+        this.budget = budget;
+        this.summarize = summarize;
+    }
+
+    /**
+     * This method raises the budget for a recipient who hears longer messages, the committers and comments are
+     * read again on their next use. A smaller budget is ignored, the values already fit.
+     *
+     * @param budget The maximum length of the committers and comments, negative for no limit
+     */
+    public synchronized void widen(int budget) {
+        if (this.budget >= 0 && (budget < 0 || budget > this.budget)) {
+            this.budget = budget;
+            committers = null;
+            comments = null;
+        }
+    }
+
+    /**
+     * @return Values for the placeholders, computed by this context
+     */
+    public PlaceholderValues toPlaceholderValues() {
+        return new PlaceholderValues(this::getProjectName, this::getUserNames, this::getComments);
+    }
+
+    public synchronized String getProjectName() {
+        if (projectName == null) {
+            projectName = build.getFullName();
+        }
+        return projectName;
+    }
+
+    /**
+     * @return The user who triggered the build, or the committers if it was not triggered by a user
+     */
+    public String getUserNames() {
+        String user = getTriggeredBy();
+        return user != null ? user : getCommitters();
+    }
+
+    /**
+     * This returns the user's full name when a build is triggered from the team city interface
+     *
+     * @return The name of the user, null if the build was not triggered by a user
+     */
+    public synchronized String getTriggeredBy() {
+        if (!triggeredByResolved) {
+            try {
+                if (build instanceof SBuild) {
+                    SBuild sBuild = (SBuild) build;
+                    if (sBuild.getTriggeredBy().isTriggeredByUser()) {
+                        triggeredBy = sBuild.getTriggeredBy().getUser().getName();
+                    }
+                }
+            }
+            catch (Exception ignored) {
+            }
+            triggeredByResolved = true;
+        }
+        return triggeredBy;
+    }
+
+    /**
+     * @return The names of the committers since the last build, each name once
+     */
+    public synchronized String getCommitters() {
+        if (committers == null) {
+            StringBuilder buffer = new StringBuilder();
+            Set<String> names = new HashSet<String>();
+            String delimiter = ", ";
+
+            // This gets the users full names if they are set in the user settings area
+            UserSet<SUser> users = build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD);
+            if (users != null) {
+                for (User user : users.getUsers()) {
+                    if (isFull(buffer)) {
+                        break;
+                    }
+                    String name = user.getName();
+                    if (!name.equals("") && names.add(name)) {
+                        append(buffer, delimiter, name);
+                    }
+                }
+            }
+
+            // If all else fails, this will get the usernames
+            if (buffer.length() == 0) {
+                for (VcsModification modification : build.getContainingChanges()) {
+                    if (isFull(buffer)) {
+                        break;
+                    }
+                    String name = modification.getUserName();
+                    if (!name.equals("") && names.add(name)) {
+                        append(buffer, delimiter, name);
+                    }
+                }
+            }
+
+            committers = buffer.toString();
+        }
+        return committers;
+    }
+
+    /**
+     * @return The descriptions of the changes in the build
+     */
+    public synchronized String getComments() {
+        if (comments == null) {
+            StringBuilder buffer = new StringBuilder();
+            String delimiter = ". ";
+
+            List<? extends VcsModification> changes = build.getContainingChanges();
+            int read = 0;
+            for (VcsModification modification : changes) {
+                if (isFull(buffer)) {
+                    break;
+                }
+                read++;
+                if (!modification.getDescription().equals("")) {
+                    append(buffer, delimiter, modification.getDescription());
+                }
+            }
+
+            int leftOut = changes.size() - read;
+            if (summarize && leftOut > 0) {
+                buffer.append(", and ").append(leftOut).append(leftOut == 1 ? " more change" : " more changes");
+            }
+            comments = buffer.toString();
+        }
+        return comments;
+    }
+
+    private boolean isFull(StringBuilder buffer) {
+        return budget >= 0 && buffer.length() >= budget;
+    }
+
+    /**
+     * This method appends a value, cutting it at the budget without copying the rest
+     */
+    private void append(StringBuilder buffer, String delimiter, String value) {
+        if (buffer.length() > 0) {
+            buffer.append(delimiter);
+        }
+        if (budget < 0) {
+            buffer.append(value);
+            return;
+        }
+        int room = budget - buffer.length();
+        if (room < 0) {
+            // the delimiter did not fit
+            buffer.setLength(budget);
+            return;
+        }
+        buffer.append(value, 0, Math.min(room, value.length()));
+    }
+}
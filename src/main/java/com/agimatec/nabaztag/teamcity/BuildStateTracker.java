@@ -0,0 +1,102 @@
+package com.agimatec.nabaztag.teamcity;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which events of a running build were announced to which rabbit, so events TeamCity reports again
+ * and again, like a failing or probably hanging build, are spoken once per quiet period instead of every time.
+ * <p/>
+ * The state is bounded: a build is forgotten when it finishes, when nothing was announced for it during the
+ * quiet period, or when more than the maximum number of builds are tracked, least recently announced first.
+ */
+public class BuildStateTracker {
+    private final long quietPeriodMillis;
+    private final int maxBuilds;
+    // by build id, least recently announced first
+    private final LinkedHashMap<Long, BuildState> builds = new LinkedHashMap<Long, BuildState>();
+
+    /**
+     * @param quietPeriodMillis The time in which an event is not announced again to the same rabbit, 0 or negative
+     *                          to announce every event
+     * @param maxBuilds         The maximum number of tracked builds
+     */
+    public BuildStateTracker(long quietPeriodMillis, int maxBuilds) {
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.maxBuilds = Math.max(1, maxBuilds);
+    }
+
+    /**
+     * This method decides if an event is announced to a rabbit and remembers it if so
+     *
+     * @param buildId  The build
+     * @param event    The name of the event, e.g. buildFailing
+     * @param rabbitID The serial number of the rabbit
+     * @param now      The current time
+     * @return true if the event was not announced to the rabbit during the quiet period
+     */
+    public synchronized boolean announce(long buildId, String event, String rabbitID, long now) {
+        if (quietPeriodMillis <= 0) {
+            return true;
+        }
+        evictQuiet(now);
+
+        String key = event + ' ' + rabbitID;
+        BuildState state = builds.get(buildId);
+        if (state == null) {
+            state = new BuildState();
+        } else {
+            Long announcedMillis = state.announced.get(key);
+            if (announcedMillis != null && now - announcedMillis < quietPeriodMillis) {
+                return false;
+            }
+            builds.remove(buildId);
+        }
+        state.announced.put(key, now);
+        state.lastMillis = now;
+
+        // the most recently announced build comes last
+        builds.put(buildId, state);
+        if (builds.size() > maxBuilds) {
+            Iterator<BuildState> eldest = builds.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * This method forgets a build, its events are not reported again once it finished
+     *
+     * @param buildId The build
+     */
+    public synchronized void finished(long buildId) {
+        builds.remove(buildId);
+    }
+
+    /**
+     * @return The number of tracked builds
+     */
+    public synchronized int size() {
+        return builds.size();
+    }
+
+    /**
+     * This method forgets the builds which had no announcement during the quiet period, their next event is
+     * announced anyway. The least recently announced builds come first, so it stops at the first active one.
+     */
+    private void evictQuiet(long now) {
+        Iterator<BuildState> states = builds.values().iterator();
+        while (states.hasNext() && now - states.next().lastMillis >= quietPeriodMillis) {
+            states.remove();
+        }
+    }
+
+    private static class BuildState {
+        // the time of the last announcement by event and rabbit
+        private final Map<String, Long> announced = new HashMap<String, Long>();
+        private long lastMillis;
+    }
+}
@@ -0,0 +1,37 @@
+package com.agimatec.nabaztag.teamcity;
+
+import java.util.List;
+
+/**
+ * The calls to be made for one event, after deliveries to the same rabbit were merged.
+ */
+public class FanOutPlan {
+    private final List<RabbitDelivery> deliveries;
+    private final int recipientCount;
+
+    public FanOutPlan(List<RabbitDelivery> deliveries, int recipientCount) {
+        this.deliveries = deliveries;
+        this.recipientCount = recipientCount;
+    }
+
+    /**
+     * @return One delivery per distinct rabbit, token, voice and message
+     */
+    public List<RabbitDelivery> getDeliveries() {
+        return deliveries;
+    }
+
+    /**
+     * @return The number of deliveries rendered for the recipients of the event
+     */
+    public int getRecipientCount() {
+        return recipientCount;
+    }
+
+    /**
+     * @return The number of calls saved because recipients share a rabbit
+     */
+    public int getSavedCalls() {
+        return recipientCount - deliveries.size();
+    }
+}
@@ -0,0 +1,40 @@
+package com.agimatec.nabaztag.teamcity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This planner merges the deliveries of one event, so a team rabbit configured by several users gets the
+ * message only once. It keeps totals over all events to show the effect.
+ */
+public class FanOutPlanner {
+    private final AtomicLong recipients = new AtomicLong();
+    private final AtomicLong savedCalls = new AtomicLong();
+
+    /**
+     * @param deliveries The rendered deliveries for all recipients of an event
+     * @return The distinct deliveries in the order of their first occurrence
+     */
+    public FanOutPlan plan(Collection<RabbitDelivery> deliveries) {
+        FanOutPlan plan = new FanOutPlan(new ArrayList<RabbitDelivery>(new LinkedHashSet<RabbitDelivery>(deliveries)), deliveries.size());
+        recipients.addAndGet(plan.getRecipientCount());
+        savedCalls.addAndGet(plan.getSavedCalls());
+        return plan;
+    }
+
+    /**
+     * @return The number of deliveries rendered since startup
+     */
+    public long getRecipientCount() {
+        return recipients.get();
+    }
+
+    /**
+     * @return The number of calls saved since startup
+     */
+    public long getSavedCalls() {
+        return savedCalls.get();
+    }
+}
@@ -0,0 +1,193 @@
+package com.agimatec.nabaztag.teamcity;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A notification message, compiled once into a list of literal text and placeholder segments.
+ * Rendering replaces the placeholders, the '#' characters and truncates the message in a single pass, without
+ * regular expressions. Values are inserted literally, so a '$' or '\' in a commit comment is spoken as it is.
+ * <p/>
+ * Compiled templates are cached by their text, as all users with the same message share one template.
+ * Only the placeholders referenced by the template are resolved from the {@link PlaceholderValues}.
+ */
+public final class MessageTemplate {
+    // the cache is cleared when it grows beyond this, user messages rarely change
+    private static final int MAX_CACHED_TEMPLATES = 512;
+    private static final ConcurrentMap<String, MessageTemplate> CACHE = new ConcurrentHashMap<String, MessageTemplate>();
+
+    // either String literals or Placeholders
+    private final Object[] segments;
+    private final int literalLength;
+    // the distinct placeholders referenced by the template
+    private final Placeholder[] placeholders;
+
+    private MessageTemplate(Object[] segments, int literalLength, Placeholder[] placeholders) {
+        this.segments = segments;
+        this.literalLength = literalLength;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * This method returns the compiled form of the given message, compiling it on first use
+     *
+     * @param template The message with placeholders
+     * @return The compiled template
+     */
+    public static MessageTemplate compile(String template) {
+        MessageTemplate compiled = CACHE.get(template);
+        if (compiled == null) {
+            if (CACHE.size() >= MAX_CACHED_TEMPLATES) {
+                CACHE.clear();
+            }
+            compiled = parse(template);
+            CACHE.put(template, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return true if the template contains the placeholder
+     */
+    public boolean uses(Placeholder placeholder) {
+        for (Placeholder used : placeholders) {
+            if (used == placeholder) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method renders the message with values which are known up front
+     *
+     * @param project   The value of #PROJECT#
+     * @param user      The value of #USER#
+     * @param comment   The value of #COMMENT#
+     * @param hashText  The text which replaces every '#', as the bunny stops talking when it encounters one
+     * @param maxLength The maximum length of the message, negative for no limit
+     * @param ellipses  The text to add to the end of a truncated message
+     * @return The text to be spoken
+     */
+    public String render(String project, String user, String comment, String hashText, int maxLength, String ellipses) {
+        return render(PlaceholderValues.of(project, user, comment), hashText, maxLength, ellipses);
+    }
+
+    /**
+     * This method renders the message, resolving only the placeholders used by this template
+     *
+     * @param values    The values of the placeholders
+     * @param hashText  The text which replaces every '#', as the bunny stops talking when it encounters one
+     * @param maxLength The maximum length of the message, negative for no limit
+     * @param ellipses  The text to add to the end of a truncated message
+     * @return The text to be spoken
+     */
+    public String render(PlaceholderValues values, String hashText, int maxLength, String ellipses) {
+        int expectedLength = literalLength;
+        for (Placeholder placeholder : placeholders) {
+            String value = values.get(placeholder);
+            expectedLength += value != null ? value.length() : 0;
+        }
+
+        Output out = new Output(expectedLength, hashText, maxLength);
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder) {
+                Placeholder placeholder = (Placeholder) segment;
+                String value = values.get(placeholder);
+                // placeholders without a value stay in the message, like they always did
+                out.append(value != null ? value : placeholder.getToken());
+            } else {
+                out.append((String) segment);
+            }
+            if (out.truncated) {
+                break;
+            }
+        }
+
+        if (out.truncated) {
+            out.buffer.append(ellipses);
+        }
+        return out.buffer.toString();
+    }
+
+    private static MessageTemplate parse(String template) {
+        List<Object> segments = new ArrayList<Object>();
+        Set<Placeholder> placeholders = EnumSet.noneOf(Placeholder.class);
+        int literalLength = 0;
+        int literalStart = 0;
+        int index = template.indexOf('#');
+        while (index >= 0) {
+            Placeholder placeholder = placeholderAt(template, index);
+            if (placeholder == null) {
+                index = template.indexOf('#', index + 1);
+                continue;
+            }
+            if (index > literalStart) {
+                segments.add(template.substring(literalStart, index));
+                literalLength += index - literalStart;
+            }
+            segments.add(placeholder);
+            placeholders.add(placeholder);
+            literalStart = index + placeholder.getToken().length();
+            index = template.indexOf('#', literalStart);
+        }
+        if (literalStart < template.length()) {
+            segments.add(template.substring(literalStart));
+            literalLength += template.length() - literalStart;
+        }
+        return new MessageTemplate(segments.toArray(), literalLength, placeholders.toArray(new Placeholder[placeholders.size()]));
+    }
+
+    private static Placeholder placeholderAt(String template, int index) {
+        for (Placeholder placeholder : Placeholder.values()) {
+            if (template.startsWith(placeholder.getToken(), index)) {
+                return placeholder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The buffer of a rendered message, which replaces '#' and stops at the maximum length
+     */
+    private static class Output {
+        private final StringBuilder buffer;
+        private final String hashText;
+        private final int maxLength;
+        private boolean truncated;
+
+        private Output(int expectedLength, String hashText, int maxLength) {
+            this.buffer = new StringBuilder(maxLength >= 0 ? Math.min(expectedLength, maxLength) : expectedLength);
+            this.hashText = hashText;
+            this.maxLength = maxLength < 0 ? Integer.MAX_VALUE : maxLength;
+        }
+
+        private void append(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '#') {
+                    for (int j = 0; j < hashText.length(); j++) {
+                        append(hashText.charAt(j));
+                    }
+                } else {
+                    append(c);
+                }
+                if (truncated) {
+                    return;
+                }
+            }
+        }
+
+        private void append(char c) {
+            if (buffer.length() < maxLength) {
+                buffer.append(c);
+            } else {
+                truncated = true;
+            }
+        }
+    }
+}
@@ -3,7 +3,28 @@ package com.agimatec.nabaztag.teamcity;
 import jetbrains.buildServer.serverSide.mute.MuteInfo;
 import jetbrains.buildServer.tests.TestName;
 import jetbrains.buildServer.vcs.VcsRoot;
+import com.agimatec.nabaztag.MessagePriority;
 import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.RetryConfig;
+import com.agimatec.nabaztag.TransportConfig;
+import com.agimatec.nabaztag.VoiceCatalogue;
+import com.agimatec.nabaztag.dispatch.DispatchConfig;
+import com.agimatec.nabaztag.dispatch.GroupBroadcaster;
+import com.agimatec.nabaztag.dispatch.JournalConfig;
+import com.agimatec.nabaztag.dispatch.JournaledSink;
+import com.agimatec.nabaztag.dispatch.LeaseConfig;
+import com.agimatec.nabaztag.dispatch.MessageCoalescer;
+import com.agimatec.nabaztag.dispatch.NabaztagDispatcher;
+import com.agimatec.nabaztag.dispatch.OutboxJournal;
+import com.agimatec.nabaztag.dispatch.OverflowPolicy;
+import com.agimatec.nabaztag.dispatch.ShardLeases;
+import com.agimatec.nabaztag.log.Log;
+import com.agimatec.nabaztag.log.LogLevel;
+import com.agimatec.nabaztag.metrics.NotifierMetrics;
 import jetbrains.buildServer.Build;
 import jetbrains.buildServer.BuildType;
 import jetbrains.buildServer.notification.Notificator;
@@ -17,14 +38,22 @@ import jetbrains.buildServer.users.NotificatorPropertyKey;
 import jetbrains.buildServer.users.PropertyKey;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.users.User;
-import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
-import jetbrains.buildServer.vcs.VcsModification;
+import jetbrains.buildServer.users.UserModel;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Random;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * This teamcity plugins is configured as a new notificator. The notifications are text
@@ -53,8 +82,17 @@ import java.util.Set;
  * - now returns multiple users and comments for build
  * - replaces '#' in message as this truncates what nabaztag says
  * - added message length limit and text to add to end of truncated message
+ * <p/>
+ * Messages are handed over to a {@link NabaztagDispatcher}, so the TeamCity event thread never waits for
+ * the Nabaztag API. Urgent messages go first, messages for the same rabbit are merged by a
+ * {@link MessageCoalescer}, and users sharing a rabbit get one call per event. Rabbits of a whole project are
+ * called as a {@link RabbitGroup}. Pending messages are kept in an {@link OutboxJournal} over a restart, and
+ * several server nodes share the rabbits through {@link ShardLeases}.
+ * <p/>
+ * The plugin is tuned with buildbunny.* TeamCity internal properties, each documented where it is read.
  */
 public class NabaztagNotificator implements Notificator {
+    private static final Log LOG = Log.get(NabaztagNotificator.class);
 
     private static final String TYPE = "nabaztagNotifier";
     private static final String TYPE_NAME = "Nabaztag Notifier";
@@ -70,6 +108,10 @@ public class NabaztagNotificator implements Notificator {
     private static final String NABAZTAG_BUILD_HANGING = "buildHanging";
     private static final String NABAZTAG_BUILD_RESPONSIBLE_CHANGED = "buildResponsibleChanged";
     private static final String NABAZTAG_BUILD_RESPONSIBLE_ASSIGNED = "buildResponsibleAssigned";
+    private static final String NABAZTAG_TESTS_MUTED = "testsMuted";
+    private static final String NABAZTAG_TESTS_UNMUTED = "testsUnmuted";
+    private static final String NABAZTAG_TESTS_RESPONSIBLE_CHANGED = "testsResponsibleChanged";
+    private static final String NABAZTAG_TESTS_RESPONSIBLE_ASSIGNED = "testsResponsibleAssigned";
     private static final String NABAZTAG_HASH_TEXT = "hashText";
     private static final String NABAZTAG_MAX_MESSAGE_LENGTH = "maxMessageLength";
     private static final String NABAZTAG_ELLIPSES = "ellipses";
@@ -86,9 +128,30 @@ public class NabaztagNotificator implements Notificator {
     private static final PropertyKey BUILD_HANGING = new NotificatorPropertyKey(TYPE, NABAZTAG_BUILD_HANGING);
     private static final PropertyKey BUILD_RESPONSIBLE_CHANGED = new NotificatorPropertyKey(TYPE, NABAZTAG_BUILD_RESPONSIBLE_CHANGED);
     private static final PropertyKey BUILD_RESPONSIBLE_ASSIGNED = new NotificatorPropertyKey(TYPE, NABAZTAG_BUILD_RESPONSIBLE_ASSIGNED);
+    private static final PropertyKey TESTS_MUTED = new NotificatorPropertyKey(TYPE, NABAZTAG_TESTS_MUTED);
+    private static final PropertyKey TESTS_UNMUTED = new NotificatorPropertyKey(TYPE, NABAZTAG_TESTS_UNMUTED);
+    private static final PropertyKey TESTS_RESPONSIBLE_CHANGED = new NotificatorPropertyKey(TYPE, NABAZTAG_TESTS_RESPONSIBLE_CHANGED);
+    private static final PropertyKey TESTS_RESPONSIBLE_ASSIGNED = new NotificatorPropertyKey(TYPE, NABAZTAG_TESTS_RESPONSIBLE_ASSIGNED);
     private static final PropertyKey HASH_TEXT = new NotificatorPropertyKey(TYPE, NABAZTAG_HASH_TEXT);
     private static final PropertyKey MAX_MESSAGE_LENGTH = new NotificatorPropertyKey(TYPE, NABAZTAG_MAX_MESSAGE_LENGTH);
     private static final PropertyKey ELLIPSES = new NotificatorPropertyKey(TYPE, NABAZTAG_ELLIPSES);
+    private static final PropertyKey[] MESSAGE_KEYS = {BUILD_STARTED, BUILD_SUCCESSFUL, BUILD_FAILED, BUILD_START_FAILED,
+            BUILD_LABELING, BUILD_FAILING, BUILD_HANGING, BUILD_RESPONSIBLE_CHANGED, BUILD_RESPONSIBLE_ASSIGNED, TESTS_MUTED, TESTS_UNMUTED,
+            TESTS_RESPONSIBLE_CHANGED, TESTS_RESPONSIBLE_ASSIGNED};
+    // events TeamCity reports again and again for a running build, they are announced once per quiet period
+    private static final Set<PropertyKey> REPEATED_EVENTS = new HashSet<PropertyKey>(Arrays.asList(BUILD_FAILING, BUILD_HANGING));
+    // the event names used in the rabbit groups file, by message property
+    private static final Map<PropertyKey, String> EVENT_NAMES = new HashMap<PropertyKey, String>();
+
+    static {
+        String[] names = {NABAZTAG_BUILD_STARTED, NABAZTAG_BUILD_SUCCESSFUL, NABAZTAG_BUILD_FAILED, NABAZTAG_BUILD_START_FAILED,
+                NABAZTAG_BUILD_LABELING, NABAZTAG_BUILD_FAILING, NABAZTAG_BUILD_HANGING, NABAZTAG_BUILD_RESPONSIBLE_CHANGED,
+                NABAZTAG_BUILD_RESPONSIBLE_ASSIGNED, NABAZTAG_TESTS_MUTED, NABAZTAG_TESTS_UNMUTED, NABAZTAG_TESTS_RESPONSIBLE_CHANGED,
+                NABAZTAG_TESTS_RESPONSIBLE_ASSIGNED};
+        for (int i = 0; i < MESSAGE_KEYS.length; i++) {
+            EVENT_NAMES.put(MESSAGE_KEYS[i], names[i]);
+        }
+    }
 
     private static final String DEFAULT_STARTED_MESSAGE = "Build #PROJECT# started.";
     private static final String DEFAULT_SUCCESSFUL_MESSAGE = "Build #PROJECT# successfull.";
@@ -99,10 +162,87 @@ public class NabaztagNotificator implements Notificator {
     private static final String DEFAULT_HANGING_MESSAGE = "Build #PROJECT# is probably hanging.";
     private static final String DEFAULT_RESPONSIBLE_CHANGED_MESSAGE = "Responsibility of build #PROJECT# changed.";
     private static final String DEFAULT_RESPONSIBLE_ASSIGNED_MESSAGE = "#USER# is assigned responsible for build #PROJECT#.";
+    private static final String DEFAULT_TESTS_MUTED_MESSAGE = "#TESTS# muted by #USER#.";
+    private static final String DEFAULT_TESTS_UNMUTED_MESSAGE = "#TESTS# unmuted by #USER#.";
+    private static final String DEFAULT_TESTS_RESPONSIBLE_CHANGED_MESSAGE = "Responsibility for #TESTS# changed.";
+    private static final String DEFAULT_TESTS_RESPONSIBLE_ASSIGNED_MESSAGE = "#USER# is assigned responsible for #TESTS#.";
     private static final String DEFAULT_HASH_TEXT = "number ";
     private static final String DEFAULT_ELLIPSES = ", et cetera.";
-
-    public NabaztagNotificator(NotificatorRegistry notificatorRegistry) throws IOException {
+    private static final int DEFAULT_COALESCE_WINDOW = 3000;
+    private static final int DEFAULT_RENDER_CONTEXT_CACHE_SIZE = 100;
+    private static final int DEFAULT_SETTINGS_MAX_AGE = 600000;
+    private static final long DEFAULT_VOICES_TIME_TO_LIVE = 86400000;
+    private static final String JOURNAL_DIRECTORY = "buildbunny/outbox";
+    private static final String LEASE_DIRECTORY = "buildbunny/leases";
+    private static final String GROUPS_FILE = "buildbunny/rabbit-groups.properties";
+    private static final long DEFAULT_GROUP_DEADLINE = 10000;
+    private static final int DEFAULT_GROUP_MAX_LENGTH = 200;
+    private static final long DEFAULT_BUILD_STATE_QUIET_PERIOD = 1800000;
+    private static final int DEFAULT_BUILD_STATE_MAX_BUILDS = 1000;
+    private static final Predicate<String> ALL_RABBITS = rabbitID -> true;
+
+    // outcomes used to summarize coalesced messages, e.g. "Core and Web failed"
+    private static final String OUTCOME_STARTED = "started";
+    private static final String OUTCOME_SUCCESSFUL = "succeeded";
+    private static final String OUTCOME_FAILED = "failed";
+    private static final String OUTCOME_START_FAILED = "failed to start";
+    private static final String OUTCOME_LABELING_FAILED = "failed labeling";
+    private static final String OUTCOME_FAILING = "failing";
+    private static final String OUTCOME_HANGING = "probably hanging";
+    private static final String OUTCOME_RESPONSIBLE_CHANGED = "responsibility changed";
+    private static final String OUTCOME_RESPONSIBLE_ASSIGNED = "responsibility assigned";
+    private static final String OUTCOME_TESTS_MUTED = "muted tests";
+    private static final String OUTCOME_TESTS_UNMUTED = "unmuted tests";
+    private static final String OUTCOME_TESTS_RESPONSIBLE_CHANGED = "test responsibility changed";
+    private static final String OUTCOME_TESTS_RESPONSIBLE_ASSIGNED = "test responsibility assigned";
+
+    // url of the Nabaztag API
+    private final String apiUrl;
+    private final NabaztagTransport transport;
+    private final VoiceCatalogue voices;
+    private final NabaztagDispatcher dispatcher;
+    // null if the journal is disabled or could not be opened
+    private final OutboxJournal journal;
+    private final MessageCoalescer coalescer;
+    // null unless several nodes share the rabbits
+    private final ShardLeases leases;
+    private final RabbitGroupRegistry groups;
+    private final GroupBroadcaster broadcaster;
+    private final BuildStateTracker buildStates;
+    private final FanOutPlanner fanOutPlanner = new FanOutPlanner();
+    private final NotifierMetrics metrics = new NotifierMetrics();
+    private final RenderContextCache renderContexts;
+    private final RabbitSettingsCache settingsCache;
+
+    /**
+     * This method registers the notificator and reads these TeamCity internal properties:
+     * <ul>
+     * <li>buildbunny.api.url: the Nabaztag API, default {@link RabbitEndpoint#DEFAULT_API_URL}, e.g. a local
+     * stand-in for load tests</li>
+     * <li>buildbunny.settings.maxAge: milliseconds after which the settings of a user are read again, even if
+     * TeamCity did not report a change of the account</li>
+     * <li>buildbunny.voices.timeToLive: milliseconds after which the voices of a rabbit are fetched again; a voice
+     * the rabbit does not support is replaced by a random one</li>
+     * <li>buildbunny.renderContext.cacheSize: the number of builds whose committers and comments are kept. They
+     * are read up to the longest message of the recipients of an event.</li>
+     * <li>buildbunny.renderContext.summarizeChanges: false to cut the comments without saying how many changes
+     * were left out</li>
+     * <li>buildbunny.coalesce.window: milliseconds within which the messages for a rabbit are merged into one
+     * summary, 0 disables this. Only the default messages of users without a length limit are merged.</li>
+     * <li>buildbunny.group.deadline: milliseconds after which a group broadcast ends, unless the group has its
+     * own deadline in buildbunny/rabbit-groups.properties</li>
+     * <li>buildbunny.group.maxLength: the length group messages are cut at, negative for no limit, unless the
+     * group has its own</li>
+     * <li>buildbunny.group.parallelism: the calls of a group broadcast at once, default
+     * buildbunny.http.maxConnectionsPerHost</li>
+     * <li>buildbunny.buildState.quietPeriod: milliseconds a failing or hanging build is announced once in, 0
+     * announces every report</li>
+     * <li>buildbunny.buildState.maxBuilds: the number of running builds whose announcements are kept</li>
+     * </ul>
+     * A rabbit should be either in a group or in user profiles, otherwise it announces the events twice. The
+     * metrics are published as the JMX MBean buildbunny:type=NotifierMetrics.
+     */
+    public NabaztagNotificator(NotificatorRegistry notificatorRegistry, UserModel userModel, ServerPaths serverPaths) throws IOException {
         ArrayList<UserPropertyInfo> userProps = new ArrayList<UserPropertyInfo>();
         userProps.add(new UserPropertyInfo(NABAZTAG_RABBIT_ID, "Nabaztag Serial #"));
         userProps.add(new UserPropertyInfo(NABAZTAG_RABBIT_TOKEN, "Nabaztag Token"));
@@ -116,155 +256,440 @@ public class NabaztagNotificator implements Notificator {
         userProps.add(new UserPropertyInfo(NABAZTAG_BUILD_HANGING, "Hanging Message"));
         userProps.add(new UserPropertyInfo(NABAZTAG_BUILD_RESPONSIBLE_CHANGED, "Changed Message"));
         userProps.add(new UserPropertyInfo(NABAZTAG_BUILD_RESPONSIBLE_ASSIGNED, "Responsible Message"));
+        userProps.add(new UserPropertyInfo(NABAZTAG_TESTS_MUTED, "Tests Muted Message"));
+        userProps.add(new UserPropertyInfo(NABAZTAG_TESTS_UNMUTED, "Tests Unmuted Message"));
+        userProps.add(new UserPropertyInfo(NABAZTAG_TESTS_RESPONSIBLE_CHANGED, "Tests Changed Message"));
+        userProps.add(new UserPropertyInfo(NABAZTAG_TESTS_RESPONSIBLE_ASSIGNED, "Tests Responsible Message"));
         userProps.add(new UserPropertyInfo(NABAZTAG_HASH_TEXT, "'#' Replacement"));
         userProps.add(new UserPropertyInfo(NABAZTAG_MAX_MESSAGE_LENGTH, "Max Message Length"));
         userProps.add(new UserPropertyInfo(NABAZTAG_ELLIPSES, "Ellipses"));
         notificatorRegistry.register(this, userProps);
-    }
 
+        configureLog();
+
+        apiUrl = TeamCityProperties.getProperty("buildbunny.api.url", RabbitEndpoint.DEFAULT_API_URL);
+        settingsCache = new RabbitSettingsCache(user -> readSettings(user, apiUrl), TeamCityProperties.getInteger("buildbunny.settings.maxAge", DEFAULT_SETTINGS_MAX_AGE));
+        userModel.addListener(settingsCache);
+
+        TransportConfig transportConfig = createTransportConfig();
+        transport = new NabaztagTransport(transportConfig);
+        voices = new VoiceCatalogue(transport, TeamCityProperties.getLong("buildbunny.voices.timeToLive", DEFAULT_VOICES_TIME_TO_LIVE));
+        leases = openLeases(new File(serverPaths.getPluginDataDirectory(), LEASE_DIRECTORY));
+        File journalDirectory = new File(serverPaths.getPluginDataDirectory(), JOURNAL_DIRECTORY);
+        journal = openJournal(leases != null ? new File(journalDirectory, leases.getNodeId()) : journalDirectory);
+        NabaztagPublisher publisher = new NabaztagPublisher(transport, createRetryConfig(), metrics);
+        if (journal != null) {
+            dispatcher = new NabaztagDispatcher(createDispatchConfig(), publisher, (request, result) -> journal.complete(request));
+            journal.replay(dispatcher);
+        } else {
+            dispatcher = new NabaztagDispatcher(createDispatchConfig(), publisher);
+        }
+        renderContexts = new RenderContextCache(TeamCityProperties.getInteger("buildbunny.renderContext.cacheSize", DEFAULT_RENDER_CONTEXT_CACHE_SIZE),
+                TeamCityProperties.getBooleanOrTrue("buildbunny.renderContext.summarizeChanges"));
+        coalescer = new MessageCoalescer(journal != null ? new JournaledSink(journal, dispatcher) : dispatcher,
+                TeamCityProperties.getInteger("buildbunny.coalesce.window", DEFAULT_COALESCE_WINDOW), journal);
+        groups = new RabbitGroupRegistry(new File(serverPaths.getPluginDataDirectory(), GROUPS_FILE), apiUrl,
+                TeamCityProperties.getLong("buildbunny.group.deadline", DEFAULT_GROUP_DEADLINE),
+                TeamCityProperties.getInteger("buildbunny.group.maxLength", DEFAULT_GROUP_MAX_LENGTH));
+        broadcaster = new GroupBroadcaster(publisher, TeamCityProperties.getInteger("buildbunny.group.parallelism",
+                transportConfig.getMaxConnectionsPerHost()), dispatcher.getRateLimiter(), journal);
+        buildStates = new BuildStateTracker(TeamCityProperties.getLong("buildbunny.buildState.quietPeriod", DEFAULT_BUILD_STATE_QUIET_PERIOD),
+                TeamCityProperties.getInteger("buildbunny.buildState.maxBuilds", DEFAULT_BUILD_STATE_MAX_BUILDS));
+
+        metrics.setPublisher(publisher);
+        metrics.setDispatcher(dispatcher);
+        metrics.setCoalescer(coalescer);
+        metrics.register();
+    }
 
+    /**
+     * This method is called by the plugin's spring context on shutdown. Pending messages are still sent.
+     */
+    public void dispose() {
+        metrics.unregister();
+        coalescer.shutdown();
+        broadcaster.shutdown();
+        dispatcher.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
+        if (leases != null) {
+            leases.close();
+        }
+        transport.close();
+        Log.flush();
+    }
 
-    public void doNotification(SUser notifyUser, PropertyKey messageKey, String messageDefault, String projectName, String userName, String comment, String rabbitEars) {
-        String message = notifyUser.getPropertyValue(messageKey);
-        if (message == null || message.equals("")) {
-            message = messageDefault;
+    /**
+     * This method sends the plugin log to the TeamCity server log, with the level buildbunny.log.level (DEBUG,
+     * INFO, WARN, ERROR or OFF, default INFO). The same failure of a rabbit is logged once per
+     * buildbunny.log.errorInterval milliseconds.
+     */
+    private static void configureLog() {
+        Log.setAppender(new TeamCityLogAppender());
+        String level = TeamCityProperties.getProperty("buildbunny.log.level", Log.getLevel().name());
+        try {
+            Log.setLevel(LogLevel.valueOf(level.trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("-- UNKNOWN LOG LEVEL " + level + " --");
         }
+        Log.setErrorInterval(TeamCityProperties.getInteger("buildbunny.log.errorInterval", 60000));
+    }
 
-        message = replaceText(message, "#PROJECT#", projectName);
-        message = replaceText(message, "#USER#", userName);
-        message = replaceText(message, "#COMMENT#", comment);
+    /**
+     * This method opens the journal unless buildbunny.journal.disabled is true. It is configured with
+     * buildbunny.journal.segmentSize (bytes), buildbunny.journal.syncInterval (milliseconds) and
+     * buildbunny.journal.maxSegments.
+     *
+     * @return The journal, null if it is disabled or could not be opened
+     */
+    private static OutboxJournal openJournal(File directory) {
+        if (TeamCityProperties.getBoolean("buildbunny.journal.disabled")) {
+            return null;
+        }
+        JournalConfig config = new JournalConfig();
+        config.setSegmentSize(TeamCityProperties.getInteger("buildbunny.journal.segmentSize", config.getSegmentSize()));
+        config.setSyncIntervalMillis(TeamCityProperties.getInteger("buildbunny.journal.syncInterval", (int) config.getSyncIntervalMillis()));
+        config.setMaxSegments(TeamCityProperties.getInteger("buildbunny.journal.maxSegments", config.getMaxSegments()));
+        try {
+            return new OutboxJournal(directory, config);
+        } catch (IOException e) {
+            // notifications are still sent, they are just not kept over a restart
+            LOG.error("-- JOURNAL COULD NOT BE OPENED --", e);
+            return null;
+        }
+    }
 
-        // Bunny stops talking when it encounters a #
-        String hashText = notifyUser.getPropertyValue(HASH_TEXT);
-        if (hashText == null || hashText.equals("")) {
-            hashText = DEFAULT_HASH_TEXT;
+    /**
+     * This method joins the nodes sharing the rabbits if buildbunny.lease.enabled is true. The rabbits are spread
+     * over buildbunny.lease.shards shards; a node renews its leases every buildbunny.lease.heartbeat milliseconds,
+     * and the shards of a node which did not renew them for buildbunny.lease.time milliseconds are taken over by the
+     * others. Every node keeps its own journal and sends its messages after a restart, whichever node owns their
+     * rabbits by then.
+     *
+     * @return The leases, null if this node sends to all rabbits
+     */
+    private static ShardLeases openLeases(File directory) throws IOException {
+        if (!TeamCityProperties.getBoolean("buildbunny.lease.enabled")) {
+            return null;
         }
-        message = replaceText(message, "#", hashText);
+        LeaseConfig config = new LeaseConfig();
+        config.setShards(TeamCityProperties.getInteger("buildbunny.lease.shards", config.getShards()));
+        config.setLeaseMillis(TeamCityProperties.getLong("buildbunny.lease.time", config.getLeaseMillis()));
+        config.setHeartbeatMillis(TeamCityProperties.getLong("buildbunny.lease.heartbeat", config.getHeartbeatMillis()));
+        // without leases every node would send to every rabbit, so the plugin does not start
+        ShardLeases leases = new ShardLeases(directory, nodeId(), config);
+        leases.start();
+        return leases;
+    }
 
-        // Truncate long commit messages
-        String maxLengthText = notifyUser.getPropertyValue(MAX_MESSAGE_LENGTH);
-        if (maxLengthText != null) {
-            try {
-                int maxLength = Integer.parseInt(maxLengthText);
-                if (message.length() > maxLength) {
-                    String ellipses = notifyUser.getPropertyValue(ELLIPSES);
-                    if (ellipses == null || hashText.equals("")) {
-                        ellipses = DEFAULT_ELLIPSES;
-                    }
-                    message = message.substring(0, maxLength).concat(ellipses);
-                }
-            }
-            catch (Exception ignored) {
-            }
+    /**
+     * @return The name of this node in the leases, the same after a restart so the node finds its journal again.
+     * It is buildbunny.lease.nodeId, by default the TeamCity node id or the host name.
+     */
+    private static String nodeId() throws IOException {
+        String nodeId = TeamCityProperties.getProperty("buildbunny.lease.nodeId", System.getProperty("teamcity.server.nodeId"));
+        if (nodeId == null || nodeId.trim().length() == 0) {
+            nodeId = InetAddress.getLocalHost().getHostName();
         }
+        // the node id is used in file names
+        return nodeId.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return true if this node sends the messages to the rabbit
+     */
+    private boolean isOwner(String rabbitID) {
+        return leases == null || leases.isOwner(rabbitID);
+    }
 
-        Nabaztag nabaztag = new Nabaztag();
+    /**
+     * @return The transport settings from buildbunny.http.connectTimeout, buildbunny.http.readTimeout,
+     * buildbunny.http.totalTimeout (milliseconds) and buildbunny.http.maxConnectionsPerHost
+     */
+    private TransportConfig createTransportConfig() {
+        TransportConfig config = new TransportConfig();
+        config.setConnectTimeoutMillis(TeamCityProperties.getInteger("buildbunny.http.connectTimeout", config.getConnectTimeoutMillis()));
+        config.setReadTimeoutMillis(TeamCityProperties.getInteger("buildbunny.http.readTimeout", config.getReadTimeoutMillis()));
+        config.setTotalTimeoutMillis(TeamCityProperties.getInteger("buildbunny.http.totalTimeout", config.getTotalTimeoutMillis()));
+        config.setMaxConnectionsPerHost(TeamCityProperties.getInteger("buildbunny.http.maxConnectionsPerHost", config.getMaxConnectionsPerHost()));
+        return config;
+    }
 
-        nabaztag.setRabbitID(notifyUser.getPropertyValue(RABBIT_ID));
-        nabaztag.setToken(notifyUser.getPropertyValue(RABBIT_TOKEN));
-        nabaztag.setText(message);
+    /**
+     * @return The retry settings: failed calls are retried buildbunny.retry.maxRetries times, with a backoff from
+     * buildbunny.retry.baseDelay up to buildbunny.retry.maxDelay milliseconds. After
+     * buildbunny.breaker.failureThreshold failures in a row the circuit of a rabbit opens for
+     * buildbunny.breaker.openTime milliseconds, doubled for every failed probe up to buildbunny.breaker.maxOpenTime.
+     */
+    private RetryConfig createRetryConfig() {
+        RetryConfig config = new RetryConfig();
+        config.setMaxRetries(TeamCityProperties.getInteger("buildbunny.retry.maxRetries", config.getMaxRetries()));
+        config.setBaseDelayMillis(TeamCityProperties.getInteger("buildbunny.retry.baseDelay", config.getBaseDelayMillis()));
+        config.setMaxDelayMillis(TeamCityProperties.getInteger("buildbunny.retry.maxDelay", config.getMaxDelayMillis()));
+        config.setFailureThreshold(TeamCityProperties.getInteger("buildbunny.breaker.failureThreshold", config.getFailureThreshold()));
+        config.setOpenMillis(TeamCityProperties.getInteger("buildbunny.breaker.openTime", config.getOpenMillis()));
+        config.setMaxOpenMillis(TeamCityProperties.getInteger("buildbunny.breaker.maxOpenTime", config.getMaxOpenMillis()));
+        return config;
+    }
 
-        String voice = notifyUser.getPropertyValue(RABBIT_VOICE);
-        if (voice != null && !voice.equals("")) {
-            nabaztag.setVoice(voice);
-        } else {
-            nabaztag.setVoice(getRandomVoice());
+    /**
+     * @return The dispatcher settings from buildbunny.dispatch.queueCapacity, buildbunny.dispatch.workers,
+     * buildbunny.dispatch.virtualThreads, buildbunny.dispatch.overflowPolicy (DROP_OLDEST, DROP_NEWEST or BLOCK),
+     * buildbunny.dispatch.offerTimeout and buildbunny.dispatch.shutdownTimeout (milliseconds). A rabbit gets at
+     * most buildbunny.rateLimit.burst messages at once and buildbunny.rateLimit.perMinute messages per minute
+     * after that.
+     */
+    private DispatchConfig createDispatchConfig() {
+        DispatchConfig config = new DispatchConfig();
+        config.setQueueCapacity(TeamCityProperties.getInteger("buildbunny.dispatch.queueCapacity", config.getQueueCapacity()));
+        config.setWorkerCount(TeamCityProperties.getInteger("buildbunny.dispatch.workers", config.getWorkerCount()));
+        config.setVirtualThreads(TeamCityProperties.getBoolean("buildbunny.dispatch.virtualThreads"));
+        config.setOfferTimeoutMillis(TeamCityProperties.getInteger("buildbunny.dispatch.offerTimeout", (int) config.getOfferTimeoutMillis()));
+        config.setShutdownTimeoutMillis(TeamCityProperties.getInteger("buildbunny.dispatch.shutdownTimeout", (int) config.getShutdownTimeoutMillis()));
+        config.setRateLimitBurst(TeamCityProperties.getInteger("buildbunny.rateLimit.burst", config.getRateLimitBurst()));
+        config.setRateLimitPerMinute(TeamCityProperties.getInteger("buildbunny.rateLimit.perMinute", config.getRateLimitPerMinute()));
+
+        String overflowPolicy = TeamCityProperties.getProperty("buildbunny.dispatch.overflowPolicy", config.getOverflowPolicy().name());
+        try {
+            config.setOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase()));
         }
+        catch (IllegalArgumentException ignored) {
+        }
+        return config;
+    }
+
 
-        if (rabbitEars != null) {
-            nabaztag.setEars(rabbitEars);
+
+    /**
+     * This method renders the message for every user and sends it once to each distinct rabbit. The placeholder
+     * values are only computed if a user's message references them.
+     *
+     * @param priority Urgent messages are sent before the normal messages waiting for the same rabbit
+     * @param topic    The build configuration the message is about, a newer message about it replaces this one
+     *                 if it was not sent yet; null if the message never becomes obsolete
+     */
+    public void doNotification(Set<SUser> notifyUsers, PropertyKey messageKey, String messageDefault, PlaceholderValues values, String rabbitEars, String outcome,
+                               MessagePriority priority, String topic) {
+        List<RabbitDelivery> deliveries = new ArrayList<RabbitDelivery>(notifyUsers.size());
+        for (SUser notifyUser : notifyUsers) {
+            RabbitDelivery delivery = renderDelivery(notifyUser, messageKey, messageDefault, values);
+            if (delivery != null) {
+                deliveries.add(delivery);
+            }
         }
 
-        nabaztag.publish();
+        FanOutPlan plan = fanOutPlanner.plan(deliveries);
+        metrics.recordFanOut(plan.getRecipientCount(), plan.getDeliveries().size());
+        for (RabbitDelivery delivery : plan.getDeliveries()) {
+            String voice = voices.resolve(delivery.getEndpoint(), delivery.getVoice());
+            NabaztagRequest request = new NabaztagRequest(delivery.getEndpoint(), delivery.getText(), voice, rabbitEars, null,
+                    System.currentTimeMillis(), priority, topic);
+            coalescer.offer(request, delivery.getSubject(), outcome);
+        }
     }
 
-    private String replaceText(String source, String find, String replace) {
-        String result = source;
-
-        if (replace != null) {
-            result = result.replaceAll(find, replace);
+    /**
+     * This method renders the message for one user
+     *
+     * @return The delivery to the user's rabbit, null if the user has no rabbit configured or another node sends to it
+     */
+    private RabbitDelivery renderDelivery(SUser notifyUser, PropertyKey messageKey, String messageDefault, PlaceholderValues values) {
+        RabbitSettings settings = settingsCache.get(notifyUser);
+        if (!settings.hasRabbit() || !isOwner(settings.getRabbitID())) {
+            return null;
         }
 
-        return result;
+        long start = System.nanoTime();
+        String message = settings.getTemplate(messageKey, messageDefault).render(values, settings.getHashText(), settings.getMaxLength(), settings.getEllipses());
+        metrics.recordRenderTime(System.nanoTime() - start);
+
+        // only the default messages without a length limit may be replaced by a summary of several builds
+        String subject = null;
+        String project = values.get(Placeholder.PROJECT);
+        if (!settings.hasTemplate(messageKey) && settings.getMaxLength() < 0 && project != null) {
+            subject = project.replace("#", settings.getHashText());
+        }
+        return new RabbitDelivery(settings.getEndpoint(), settings.getVoice(), message, subject);
     }
 
-    private String getUserNames(Build build) {
-        // This returns the user's full name when a build is triggered from the team city interface
-        try {
-            if (build instanceof SBuild) {
-                SBuild sBuild = (SBuild) build;
-                if (sBuild.getTriggeredBy().isTriggeredByUser()) {
-                    return sBuild.getTriggeredBy().getUser().getName();
-                }
+    /**
+     * This method reads the Nabaztag settings of a user
+     *
+     * @param user   The user
+     * @param apiUrl The url of the Nabaztag API, null for the default
+     * @return The settings, a malformed max length is read as no limit
+     */
+    public static RabbitSettings readSettings(SUser user, String apiUrl) {
+        Map<PropertyKey, MessageTemplate> templates = new HashMap<PropertyKey, MessageTemplate>();
+        for (PropertyKey messageKey : MESSAGE_KEYS) {
+            String message = user.getPropertyValue(messageKey);
+            if (message != null && !message.equals("")) {
+                templates.put(messageKey, MessageTemplate.compile(message));
             }
         }
-        catch (Exception ignored) {
-        }
 
-        StringBuffer buffer = new StringBuffer();
-        String delimiter = ", ";
+        // Bunny stops talking when it encounters a #
+        String hashText = user.getPropertyValue(HASH_TEXT);
+        if (hashText == null || hashText.equals("")) {
+            hashText = DEFAULT_HASH_TEXT;
+        }
 
-        // This gets the users full names if they are set in the user settings area
-        if (build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD) != null) {
-            for (User user : build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers()) {
-                if (!user.getName().equals("")) {
-                    buffer.append(delimiter);
-                    buffer.append(user.getName());
-                }
+        // Truncate long commit messages
+        int maxLength = -1;
+        String maxLengthText = user.getPropertyValue(MAX_MESSAGE_LENGTH);
+        if (maxLengthText != null) {
+            try {
+                maxLength = Integer.parseInt(maxLengthText.trim());
             }
+            catch (NumberFormatException ignored) {
+            }
+        }
+        String ellipses = user.getPropertyValue(ELLIPSES);
+        if (ellipses == null || ellipses.equals("")) {
+            ellipses = DEFAULT_ELLIPSES;
         }
 
-        // If all else fails, this will get the usernames
-        if (buffer.length() == 0) {
-            for (VcsModification modification : build.getContainingChanges()) {
-                if (!modification.getUserName().equals("")) {
-                    buffer.append(delimiter);
-                    buffer.append(modification.getUserName());
+        return new RabbitSettings(apiUrl, user.getPropertyValue(RABBIT_ID), user.getPropertyValue(RABBIT_TOKEN), user.getPropertyValue(RABBIT_VOICE),
+                hashText, maxLength, ellipses, templates);
+    }
+
+    /**
+     * This method sends the message once to every rabbit of each group which announces the event. The calls of a
+     * group are made in parallel and end at the deadline of the group.
+     */
+    private void broadcastToGroups(String projectId, PropertyKey messageKey, String messageDefault, PlaceholderValues values, String rabbitEars,
+                                   MessagePriority priority, String topic, Predicate<String> announce) {
+        String event = EVENT_NAMES.get(messageKey);
+        for (RabbitGroup group : groups.getGroups(projectId, event)) {
+            String text = null;
+            long now = System.currentTimeMillis();
+            List<NabaztagRequest> requests = new ArrayList<NabaztagRequest>(group.getRabbits().size());
+            for (RabbitEndpoint endpoint : group.getRabbits()) {
+                if (!isOwner(endpoint.getRabbitID()) || !announce.test(endpoint.getRabbitID())) {
+                    continue;
+                }
+                if (text == null) {
+                    text = group.getTemplate(event, messageDefault).render(values, DEFAULT_HASH_TEXT, group.getMaxLength(), DEFAULT_ELLIPSES);
                 }
+                String voice = voices.resolve(endpoint, group.getVoice());
+                requests.add(new NabaztagRequest(endpoint, text, voice, rabbitEars, null, now, priority, topic));
+            }
+            if (!requests.isEmpty()) {
+                broadcaster.broadcast(group.getName(), requests, group.getDeadlineMillis());
             }
         }
+    }
 
-        String result = buffer.toString();
+    /**
+     * This method creates the check for a repeated event of a build. The event is announced to a rabbit which did
+     * not hear it during the quiet period, and to all users sharing that rabbit.
+     *
+     * @return Tells if the event is announced to a rabbit, and remembers it if so
+     */
+    private Predicate<String> announcement(final long buildId, final String event) {
+        final long now = System.currentTimeMillis();
+        final Set<String> announcing = new HashSet<String>();
+        return rabbitID -> announcing.contains(rabbitID) || (buildStates.announce(buildId, event, rabbitID, now) && announcing.add(rabbitID));
+    }
 
-        // Trim the first delimiter
-        if (result.length() > delimiter.length()) {
-            result = result.substring(delimiter.length());
+    /**
+     * @return The users whose rabbit is to be told about the event
+     */
+    private Set<SUser> announcedTo(Set<SUser> users, Predicate<String> announce) {
+        Set<SUser> announced = new HashSet<SUser>(users.size() * 2);
+        for (SUser user : users) {
+            RabbitSettings settings = settingsCache.get(user);
+            if (settings.hasRabbit() && announce.test(settings.getRabbitID())) {
+                announced.add(user);
+            }
         }
-
-        return result;
+        return announced;
     }
 
-    private String getComments(Build build) {
-        StringBuffer buffer = new StringBuffer();
-        String delimiter = ". ";
+    private void notifyBuild(Build build, Set<SUser> users, PropertyKey messageKey, String messageDefault, String rabbitEars, String outcome,
+                             MessagePriority priority) {
+        Predicate<String> announce = ALL_RABBITS;
+        if (REPEATED_EVENTS.contains(messageKey)) {
+            announce = announcement(build.getBuildId(), EVENT_NAMES.get(messageKey));
+            users = announcedTo(users, announce);
+        }
+        PlaceholderValues values = renderContexts.get(build, renderBudget(users, build.getProjectId(), messageKey)).toPlaceholderValues();
+        doNotification(users, messageKey, messageDefault, values, rabbitEars, outcome, priority, build.getBuildTypeId());
+        broadcastToGroups(build.getProjectId(), messageKey, messageDefault, values, rabbitEars, priority, build.getBuildTypeId(), announce);
+    }
 
-        for (VcsModification modification : build.getContainingChanges()) {
-            if (!modification.getDescription().equals("")) {
-                buffer.append(delimiter);
-                buffer.append(modification.getDescription());
+    /**
+     * @return The longest message one of the users or groups hears, negative if one of them has no limit
+     */
+    private int renderBudget(Set<SUser> users, String projectId, PropertyKey messageKey) {
+        int budget = 0;
+        for (SUser user : users) {
+            RabbitSettings settings = settingsCache.get(user);
+            if (settings.hasRabbit()) {
+                budget = wider(budget, settings.getMaxLength());
             }
         }
+        for (RabbitGroup group : groups.getGroups(projectId, EVENT_NAMES.get(messageKey))) {
+            budget = wider(budget, group.getMaxLength());
+        }
+        return budget;
+    }
 
-        String result = buffer.toString();
+    private static int wider(int budget, int maxLength) {
+        return budget < 0 || maxLength < 0 ? -1 : Math.max(budget, maxLength);
+    }
 
-        // Trim the first delimiter
-        if (result.length() > delimiter.length()) {
-            result = result.substring(delimiter.length());
+    private void notifyResponsible(SBuildType buildType, Set<SUser> users, PropertyKey messageKey, String messageDefault, String outcome) {
+        String userName = null;
+        String comment = null;
+        ResponsibilityEntry responsibility = buildType.getResponsibilityInfo();
+        if (responsibility != null) {
+            if (responsibility.getResponsibleUser() != null) {
+                userName = responsibility.getResponsibleUser().getDescriptiveName();
+            }
+            comment = responsibility.getComment();
         }
+        PlaceholderValues values = PlaceholderValues.of(buildType.getFullName(), userName, comment);
+        doNotification(users, messageKey, messageDefault, values, Nabaztag.EARS_SPECIAL, outcome, MessagePriority.NORMAL, buildType.getBuildTypeId());
+        broadcastToGroups(buildType.getProjectId(), messageKey, messageDefault, values, Nabaztag.EARS_SPECIAL, MessagePriority.NORMAL,
+                buildType.getBuildTypeId(), ALL_RABBITS);
+    }
 
-        return result;
+    /**
+     * This method announces an event concerning many tests with one message per rabbit. The tests are walked once
+     * into a {@link TestSummary}, and only if a message of a user or a group uses #TESTS#.
+     */
+    private void notifyTests(Supplier<String> tests, String projectId, String projectName, User user, String comment, Set<SUser> users,
+                             PropertyKey messageKey, String messageDefault, String outcome) {
+        String userName = user != null ? user.getDescriptiveName() : null;
+        PlaceholderValues values = new PlaceholderValues(() -> projectName, () -> userName, () -> comment, tests);
+        doNotification(users, messageKey, messageDefault, values, Nabaztag.EARS_SPECIAL, outcome, MessagePriority.NORMAL, null);
+        broadcastToGroups(projectId, messageKey, messageDefault, values, Nabaztag.EARS_SPECIAL, MessagePriority.NORMAL, null, ALL_RABBITS);
     }
 
-    private String getRandomVoice() {
-        String[] voices = new String[]{"AU-Colleen", "AU-Jon", "UK-Edwin", "UK-Leonard", "UK-Mistermuggles", "UK-Penelope", "UK-Rachel", "UK-Shirley", "US-Bethany", "US-Billye", "US-Clarence", "US-Darleen", "US-Ernest", "US-Liberty", "US-Lilian"};
-        int index = new Random().nextInt(voices.length);
-        return voices[index];
+    private static Supplier<String> summarize(final Collection<TestName> testNames) {
+        return () -> TestSummary.of(testNames).toString();
+    }
+
+    private static Supplier<String> summarizeTests(final Collection<STest> tests) {
+        return () -> {
+            TestSummary summary = new TestSummary();
+            for (STest test : tests) {
+                summary.add(test.getName());
+            }
+            return summary.toString();
+        };
+    }
+
+    private static Supplier<String> summarize(final TestNameResponsibilityEntry entry) {
+        return () -> TestSummary.of(Collections.singletonList(entry.getTestName())).toString();
     }
 
     @Override
     public void notifyBuildStarted(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_STARTED, DEFAULT_STARTED_MESSAGE, null, OUTCOME_STARTED, MessagePriority.NORMAL);
     }
 
 
@@ -272,96 +697,117 @@ public class NabaztagNotificator implements Notificator {
     @Override
     public void notifyBuildSuccessful(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_SUCCESSFUL, DEFAULT_SUCCESSFUL_MESSAGE, Nabaztag.EARS_HAPPY, OUTCOME_SUCCESSFUL, MessagePriority.NORMAL);
+        buildStates.finished(sRunningBuild.getBuildId());
     }
 
     @Override
     public void notifyBuildFailed(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_FAILED, DEFAULT_FAILED_MESSAGE, Nabaztag.EARS_SAD, OUTCOME_FAILED, MessagePriority.URGENT);
+        buildStates.finished(sRunningBuild.getBuildId());
     }
 
     @Override
     public void notifyBuildFailedToStart(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_START_FAILED, DEFAULT_START_FAILED_MESSAGE, Nabaztag.EARS_SAD, OUTCOME_START_FAILED, MessagePriority.URGENT);
+        buildStates.finished(sRunningBuild.getBuildId());
     }
 
     @Override
     public void notifyLabelingFailed(@org.jetbrains.annotations.NotNull Build build, @org.jetbrains.annotations.NotNull VcsRoot vcsRoot, @org.jetbrains.annotations.NotNull Throwable throwable, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(build, sUsers, BUILD_LABELING, DEFAULT_LABELING_MESSAGE, Nabaztag.EARS_SAD, OUTCOME_LABELING_FAILED, MessagePriority.NORMAL);
     }
 
     @Override
     public void notifyBuildFailing(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_FAILING, DEFAULT_FAILING_MESSAGE, Nabaztag.EARS_SAD, OUTCOME_FAILING, MessagePriority.NORMAL);
     }
 
     @Override
     public void notifyBuildProbablyHanging(@org.jetbrains.annotations.NotNull SRunningBuild sRunningBuild, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyBuild(sRunningBuild, sUsers, BUILD_HANGING, DEFAULT_HANGING_MESSAGE, Nabaztag.EARS_SPECIAL, OUTCOME_HANGING, MessagePriority.URGENT);
     }
 
     @Override
     public void notifyResponsibleChanged(@org.jetbrains.annotations.NotNull SBuildType sBuildType, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyResponsible(sBuildType, sUsers, BUILD_RESPONSIBLE_CHANGED, DEFAULT_RESPONSIBLE_CHANGED_MESSAGE, OUTCOME_RESPONSIBLE_CHANGED);
     }
 
     @Override
     public void notifyResponsibleAssigned(@org.jetbrains.annotations.NotNull SBuildType sBuildType, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyResponsible(sBuildType, sUsers, BUILD_RESPONSIBLE_ASSIGNED, DEFAULT_RESPONSIBLE_ASSIGNED_MESSAGE, OUTCOME_RESPONSIBLE_ASSIGNED);
     }
 
     @Override
     public void notifyResponsibleChanged(@org.jetbrains.annotations.Nullable TestNameResponsibilityEntry testNameResponsibilityEntry, @org.jetbrains.annotations.NotNull TestNameResponsibilityEntry testNameResponsibilityEntry2, @org.jetbrains.annotations.NotNull SProject sProject, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarize(testNameResponsibilityEntry2), sProject.getProjectId(), sProject.getName(), testNameResponsibilityEntry2.getResponsibleUser(),
+                testNameResponsibilityEntry2.getComment(), sUsers, TESTS_RESPONSIBLE_CHANGED, DEFAULT_TESTS_RESPONSIBLE_CHANGED_MESSAGE,
+                OUTCOME_TESTS_RESPONSIBLE_CHANGED);
     }
 
     @Override
     public void notifyResponsibleAssigned(@org.jetbrains.annotations.Nullable TestNameResponsibilityEntry testNameResponsibilityEntry, @org.jetbrains.annotations.NotNull TestNameResponsibilityEntry testNameResponsibilityEntry2, @org.jetbrains.annotations.NotNull SProject sProject, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarize(testNameResponsibilityEntry2), sProject.getProjectId(), sProject.getName(), testNameResponsibilityEntry2.getResponsibleUser(),
+                testNameResponsibilityEntry2.getComment(), sUsers, TESTS_RESPONSIBLE_ASSIGNED, DEFAULT_TESTS_RESPONSIBLE_ASSIGNED_MESSAGE,
+                OUTCOME_TESTS_RESPONSIBLE_ASSIGNED);
     }
 
     @Override
     public void notifyResponsibleChanged(@org.jetbrains.annotations.NotNull Collection<TestName> testNames, @org.jetbrains.annotations.NotNull ResponsibilityEntry responsibilityEntry, @org.jetbrains.annotations.NotNull SProject sProject, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarize(testNames), sProject.getProjectId(), sProject.getName(), responsibilityEntry.getResponsibleUser(),
+                responsibilityEntry.getComment(), sUsers, TESTS_RESPONSIBLE_CHANGED, DEFAULT_TESTS_RESPONSIBLE_CHANGED_MESSAGE,
+                OUTCOME_TESTS_RESPONSIBLE_CHANGED);
     }
 
     @Override
     public void notifyResponsibleAssigned(@org.jetbrains.annotations.NotNull Collection<TestName> testNames, @org.jetbrains.annotations.NotNull ResponsibilityEntry responsibilityEntry, @org.jetbrains.annotations.NotNull SProject sProject, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarize(testNames), sProject.getProjectId(), sProject.getName(), responsibilityEntry.getResponsibleUser(),
+                responsibilityEntry.getComment(), sUsers, TESTS_RESPONSIBLE_ASSIGNED, DEFAULT_TESTS_RESPONSIBLE_ASSIGNED_MESSAGE,
+                OUTCOME_TESTS_RESPONSIBLE_ASSIGNED);
     }
 
     @Override
     public void notifyTestsMuted(@org.jetbrains.annotations.NotNull Collection<STest> sTests, @org.jetbrains.annotations.NotNull MuteInfo muteInfo, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarizeTests(sTests), muteInfo.getProjectId(), projectName(muteInfo), muteInfo.getMutingUser(), null, sUsers,
+                TESTS_MUTED, DEFAULT_TESTS_MUTED_MESSAGE, OUTCOME_TESTS_MUTED);
     }
 
     @Override
     public void notifyTestsUnmuted(@org.jetbrains.annotations.NotNull Collection<STest> sTests, @org.jetbrains.annotations.NotNull MuteInfo muteInfo, @org.jetbrains.annotations.Nullable SUser sUser, @org.jetbrains.annotations.NotNull Set<SUser> sUsers)
     {
-        //To change body of implemented methods use File | Settings | File Templates.
+        notifyTests(summarizeTests(sTests), muteInfo.getProjectId(), projectName(muteInfo), sUser, null, sUsers,
+                TESTS_UNMUTED, DEFAULT_TESTS_UNMUTED_MESSAGE, OUTCOME_TESTS_UNMUTED);
+    }
+
+    /**
+     * @return The name of the project the tests were muted in, its id if the project was removed
+     */
+    private static String projectName(MuteInfo muteInfo) {
+        SProject project = muteInfo.getProject();
+        return project != null ? project.getName() : muteInfo.getProjectId();
     }
 
     @Override
     public String getNotificatorType()
     {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return TYPE;
     }
 
     @Override
     public String getDisplayName()
     {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return TYPE_NAME;
     }
 }
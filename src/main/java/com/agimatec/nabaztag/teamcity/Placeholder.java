@@ -0,0 +1,28 @@
+package com.agimatec.nabaztag.teamcity;
+
+/**
+ * The placeholders which can be used in the notification messages.
+ */
+public enum Placeholder {
+    // name of the build configuration
+    PROJECT("#PROJECT#"),
+    // user who triggered the build or the committers
+    USER("#USER#"),
+    // commit comments
+    COMMENT("#COMMENT#"),
+    // summary of muted tests or tests with a new responsible, e.g. 412 tests in 3 suites
+    TESTS("#TESTS#");
+
+    private final String token;
+
+    Placeholder(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return The text which is replaced in a message, e.g. #PROJECT#
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,71 @@
+package com.agimatec.nabaztag.teamcity;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The values of the placeholders for one event. A value is computed when a template references it for the
+ * first time and then reused for all further recipients, so an expensive value like the commit comments of a
+ * big change is only computed if any user's message contains #COMMENT#.
+ * <p/>
+ * Instances are meant to be used by the thread handling the event.
+ */
+public class PlaceholderValues {
+    private static final Object UNRESOLVED = new Object();
+
+    private final Map<Placeholder, Supplier<String>> suppliers = new EnumMap<Placeholder, Supplier<String>>(Placeholder.class);
+    private final Object[] values = new Object[Placeholder.values().length];
+
+    public PlaceholderValues(Supplier<String> project, Supplier<String> user, Supplier<String> comment) {
+        this(project, user, comment, null);
+    }
+
+    /**
+     * @param tests The summary of the tests of a test event, null for other events
+     */
+    public PlaceholderValues(Supplier<String> project, Supplier<String> user, Supplier<String> comment, Supplier<String> tests) {
+        suppliers.put(Placeholder.PROJECT, project);
+        suppliers.put(Placeholder.USER, user);
+        suppliers.put(Placeholder.COMMENT, comment);
+        suppliers.put(Placeholder.TESTS, tests);
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = UNRESOLVED;
+        }
+    }
+
+    /**
+     * @return Values which are known up front
+     */
+    public static PlaceholderValues of(final String project, final String user, final String comment) {
+        return new PlaceholderValues(() -> project, () -> user, () -> comment);
+    }
+
+    /**
+     * @return Values of a test event which are known up front
+     */
+    public static PlaceholderValues of(final String project, final String user, final String comment, final String tests) {
+        return new PlaceholderValues(() -> project, () -> user, () -> comment, () -> tests);
+    }
+
+    /**
+     * @param placeholder The placeholder
+     * @return The value of the placeholder, null if there is none
+     */
+    public String get(Placeholder placeholder) {
+        int index = placeholder.ordinal();
+        if (values[index] == UNRESOLVED) {
+            Supplier<String> supplier = suppliers.get(placeholder);
+            values[index] = supplier != null ? supplier.get() : null;
+        }
+        return (String) values[index];
+    }
+
+    /**
+     * @return true if the value of the placeholder was computed already
+     */
+    public boolean isResolved(Placeholder placeholder) {
+        return values[placeholder.ordinal()] != UNRESOLVED;
+    }
+}
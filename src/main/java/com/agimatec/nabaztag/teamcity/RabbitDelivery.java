@@ -0,0 +1,68 @@
+package com.agimatec.nabaztag.teamcity;
+
+import com.agimatec.nabaztag.RabbitEndpoint;
+
+/**
+ * A rendered message for one rabbit. Two deliveries are equal if they would result in the same call to the
+ * Nabaztag API, which allows to send a message only once to a rabbit shared by several users.
+ */
+public class RabbitDelivery {
+    private final RabbitEndpoint endpoint;
+    // the configured voice, empty if a random voice should be picked
+    private final String voice;
+    private final String text;
+    // what the message is about as it is spoken, null if the message must not be summarized
+    private final String subject;
+
+    public RabbitDelivery(RabbitEndpoint endpoint, String voice, String text) {
+        this(endpoint, voice, text, null);
+    }
+
+    /**
+     * @param subject What the message is about as it is spoken in a summary of several messages, null if the
+     *                message has to be spoken as it is. It does not take part in the comparison of deliveries.
+     */
+    public RabbitDelivery(RabbitEndpoint endpoint, String voice, String text, String subject) {
+        this.endpoint = endpoint;
+        this.voice = voice == null ? "" : voice;
+        this.text = text;
+        this.subject = subject;
+    }
+
+    public RabbitEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RabbitDelivery)) return false;
+
+        RabbitDelivery that = (RabbitDelivery) o;
+        return endpoint.equals(that.endpoint) && voice.equals(that.voice) && equal(text, that.text);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = endpoint.hashCode();
+        result = 31 * result + voice.hashCode();
+        result = 31 * result + (text != null ? text.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
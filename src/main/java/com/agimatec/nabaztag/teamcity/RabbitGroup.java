@@ -0,0 +1,94 @@
+package com.agimatec.nabaztag.teamcity;
+
+import com.agimatec.nabaztag.RabbitEndpoint;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A named set of rabbits which announce the events of some projects, e.g. all rabbits of an office. A group is
+ * configured once for the server instead of in the profile of every user, and every rabbit of the group is
+ * called once per event.
+ */
+public final class RabbitGroup {
+    private final String name;
+    private final List<RabbitEndpoint> rabbits;
+    // the ids of the projects the group listens to, empty for all projects
+    private final Set<String> projectIds;
+    // the names of the events the group listens to, empty for all events
+    private final Set<String> events;
+    // empty if a random voice should be picked
+    private final String voice;
+    private final long deadlineMillis;
+    // longer messages are cut, negative for no limit
+    private final int maxLength;
+    // compiled messages of the group by event name, messages which are not set are missing
+    private final Map<String, MessageTemplate> templates;
+
+    public RabbitGroup(String name, List<RabbitEndpoint> rabbits, Set<String> projectIds, Set<String> events, String voice,
+                       long deadlineMillis, int maxLength, Map<String, MessageTemplate> templates) {
+        this.name = name;
+        this.rabbits = Collections.unmodifiableList(rabbits);
+        this.projectIds = Collections.unmodifiableSet(projectIds);
+        this.events = Collections.unmodifiableSet(events);
+        this.voice = voice == null ? "" : voice;
+        this.deadlineMillis = deadlineMillis;
+        this.maxLength = maxLength;
+        this.templates = Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * @param projectId The project of the event
+     * @param event     The name of the event, e.g. buildFailed
+     * @return true if the group announces the event
+     */
+    public boolean isSubscribed(String projectId, String event) {
+        return (projectIds.isEmpty() || projectIds.contains(projectId)) && (events.isEmpty() || events.contains(event));
+    }
+
+    /**
+     * @param event          The name of the event
+     * @param messageDefault The message to use if the group did not set one
+     * @return The compiled message
+     */
+    public MessageTemplate getTemplate(String event, String messageDefault) {
+        MessageTemplate template = templates.get(event);
+        return template != null ? template : MessageTemplate.compile(messageDefault);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<RabbitEndpoint> getRabbits() {
+        return rabbits;
+    }
+
+    public Set<String> getProjectIds() {
+        return projectIds;
+    }
+
+    public Set<String> getEvents() {
+        return events;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    /**
+     * @return The time a broadcast to the group may take
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * @return The maximum length of the messages of the group, negative for no limit
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+}
@@ -0,0 +1,165 @@
+package com.agimatec.nabaztag.teamcity;
+
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.log.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The {@link RabbitGroup}s of the server, read from a properties file in the plugin data directory:
+ * <pre>
+ * groups=office
+ * group.office.rabbits=0013D3849A2B:token1, 0013D3849A2C:token2
+ * group.office.projects=project1, project2
+ * group.office.events=buildFailed, buildHanging
+ * group.office.voice=UK-Penelope
+ * group.office.deadline=10000
+ * group.office.maxLength=200
+ * group.office.message.buildFailed=Attention, #PROJECT# failed.
+ * </pre>
+ * Only the rabbits are required. A group without projects or events announces the events of all projects,
+ * events are named like the message settings of the users. The file is read again when it changes, so groups
+ * can be edited without restarting the server.
+ */
+public class RabbitGroupRegistry {
+    private static final Log LOG = Log.get(RabbitGroupRegistry.class);
+
+    private final File file;
+    private final String apiUrl;
+    private final long defaultDeadlineMillis;
+    private final int defaultMaxLength;
+    private List<RabbitGroup> groups = Collections.emptyList();
+    // the state of the file when it was read, to notice changes
+    private long loadedModified = -1;
+    private long loadedLength = -1;
+
+    /**
+     * @param file                  The properties file, it does not have to exist
+     * @param apiUrl                The url of the Nabaztag API, null for the default
+     * @param defaultDeadlineMillis The deadline of groups which do not set one
+     * @param defaultMaxLength      The maximum message length of groups which do not set one, negative for no limit
+     */
+    public RabbitGroupRegistry(File file, String apiUrl, long defaultDeadlineMillis, int defaultMaxLength) {
+        this.file = file;
+        this.apiUrl = apiUrl;
+        this.defaultDeadlineMillis = defaultDeadlineMillis;
+        this.defaultMaxLength = defaultMaxLength;
+    }
+
+    /**
+     * @param projectId The project of the event
+     * @param event     The name of the event, e.g. buildFailed
+     * @return The groups which announce the event
+     */
+    public List<RabbitGroup> getGroups(String projectId, String event) {
+        List<RabbitGroup> subscribed = null;
+        for (RabbitGroup group : getGroups()) {
+            if (group.isSubscribed(projectId, event)) {
+                if (subscribed == null) {
+                    subscribed = new ArrayList<RabbitGroup>();
+                }
+                subscribed.add(group);
+            }
+        }
+        return subscribed != null ? subscribed : Collections.<RabbitGroup>emptyList();
+    }
+
+    /**
+     * @return All groups, read again if the file changed
+     */
+    public synchronized List<RabbitGroup> getGroups() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified != loadedModified || length != loadedLength) {
+            loadedModified = modified;
+            loadedLength = length;
+            groups = modified == 0 ? Collections.<RabbitGroup>emptyList() : read();
+        }
+        return groups;
+    }
+
+    private List<RabbitGroup> read() {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.error("-- RABBIT GROUPS COULD NOT BE READ: " + file + " --", e);
+            return groups;
+        }
+
+        List<RabbitGroup> read = new ArrayList<RabbitGroup>();
+        for (String name : split(properties.getProperty("groups"))) {
+            String prefix = "group." + name + ".";
+            List<RabbitEndpoint> rabbits = new ArrayList<RabbitEndpoint>();
+            for (String rabbit : split(properties.getProperty(prefix + "rabbits"))) {
+                int separator = rabbit.indexOf(':');
+                if (separator <= 0 || separator == rabbit.length() - 1) {
+                    LOG.warn("-- RABBIT GROUP " + name + ": EXPECTED SERIAL:TOKEN INSTEAD OF " + rabbit + " --");
+                    continue;
+                }
+                rabbits.add(new RabbitEndpoint(apiUrl, rabbit.substring(0, separator).trim(), rabbit.substring(separator + 1).trim(), null));
+            }
+            if (rabbits.isEmpty()) {
+                LOG.warn("-- RABBIT GROUP " + name + " HAS NO RABBITS --");
+                continue;
+            }
+
+            long deadlineMillis = defaultDeadlineMillis;
+            String deadline = properties.getProperty(prefix + "deadline");
+            if (deadline != null) {
+                try {
+                    deadlineMillis = Long.parseLong(deadline.trim());
+                }
+                catch (NumberFormatException ignored) {
+                }
+            }
+
+            int maxLength = defaultMaxLength;
+            String maxLengthText = properties.getProperty(prefix + "maxLength");
+            if (maxLengthText != null) {
+                try {
+                    maxLength = Integer.parseInt(maxLengthText.trim());
+                }
+                catch (NumberFormatException ignored) {
+                }
+            }
+
+            Map<String, MessageTemplate> templates = new HashMap<String, MessageTemplate>();
+            String messagePrefix = prefix + "message.";
+            for (String key : properties.stringPropertyNames()) {
+                String message = properties.getProperty(key);
+                if (key.startsWith(messagePrefix) && !message.equals("")) {
+                    templates.put(key.substring(messagePrefix.length()), MessageTemplate.compile(message));
+                }
+            }
+
+            read.add(new RabbitGroup(name, rabbits, split(properties.getProperty(prefix + "projects")),
+                    split(properties.getProperty(prefix + "events")), properties.getProperty(prefix + "voice"), deadlineMillis, maxLength, templates));
+        }
+        LOG.info("-- " + read.size() + " RABBIT GROUPS READ FROM " + file + " --");
+        return Collections.unmodifiableList(read);
+    }
+
+    private static Set<String> split(String list) {
+        Set<String> values = new LinkedHashSet<String>();
+        if (list != null) {
+            for (String value : list.split(",")) {
+                if (value.trim().length() > 0) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return values;
+    }
+}
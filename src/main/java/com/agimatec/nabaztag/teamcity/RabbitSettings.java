@@ -0,0 +1,104 @@
+package com.agimatec.nabaztag.teamcity;
+
+import com.agimatec.nabaztag.RabbitEndpoint;
+import jetbrains.buildServer.users.PropertyKey;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a user's Nabaztag settings, with numbers parsed and messages compiled. It replaces
+ * reading the user properties for every message.
+ */
+public final class RabbitSettings {
+    private final String rabbitID;
+    private final String token;
+    // url prefix of the rabbit, null if no rabbit is configured
+    private final RabbitEndpoint endpoint;
+    // empty if a random voice should be picked
+    private final String voice;
+    private final String hashText;
+    // negative if messages should not be truncated
+    private final int maxLength;
+    private final String ellipses;
+    // compiled messages of the user, messages which are not set are missing
+    private final Map<PropertyKey, MessageTemplate> templates;
+    private final long createdMillis;
+
+    public RabbitSettings(String rabbitID, String token, String voice, String hashText, int maxLength, String ellipses,
+                          Map<PropertyKey, MessageTemplate> templates) {
+        this(null, rabbitID, token, voice, hashText, maxLength, ellipses, templates);
+    }
+
+    /**
+     * @param apiUrl The url of the Nabaztag API, null for the default
+     */
+    public RabbitSettings(String apiUrl, String rabbitID, String token, String voice, String hashText, int maxLength,
+                          String ellipses, Map<PropertyKey, MessageTemplate> templates) {
+        this.rabbitID = rabbitID;
+        this.token = token;
+        this.endpoint = hasRabbit() ? new RabbitEndpoint(apiUrl, rabbitID, token, null) : null;
+        this.voice = voice == null ? "" : voice;
+        this.hashText = hashText;
+        this.maxLength = maxLength;
+        this.ellipses = ellipses;
+        this.templates = Collections.unmodifiableMap(templates);
+        this.createdMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if the user configured a rabbit to talk to
+     */
+    public boolean hasRabbit() {
+        return rabbitID != null && !rabbitID.equals("");
+    }
+
+    /**
+     * @param messageKey     The message property
+     * @param messageDefault The message to use if the user did not set one
+     * @return The compiled message
+     */
+    public MessageTemplate getTemplate(PropertyKey messageKey, String messageDefault) {
+        MessageTemplate template = templates.get(messageKey);
+        return template != null ? template : MessageTemplate.compile(messageDefault);
+    }
+
+    /**
+     * @return true if the user wrote an own message for the event
+     */
+    public boolean hasTemplate(PropertyKey messageKey) {
+        return templates.containsKey(messageKey);
+    }
+
+    public String getRabbitID() {
+        return rabbitID;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public RabbitEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public String getHashText() {
+        return hashText;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public String getEllipses() {
+        return ellipses;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+}
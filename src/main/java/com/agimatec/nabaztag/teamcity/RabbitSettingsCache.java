@@ -0,0 +1,63 @@
+package com.agimatec.nabaztag.teamcity;
+
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserModelListenerAdapter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * The {@link RabbitSettings} of all users, by user id. The entry of a user is dropped when TeamCity reports a
+ * change of the user account. As a safety net, snapshots older than the maximum age are read again.
+ */
+public class RabbitSettingsCache extends UserModelListenerAdapter {
+    private final ConcurrentMap<Long, RabbitSettings> settings = new ConcurrentHashMap<Long, RabbitSettings>();
+    private final Function<SUser, RabbitSettings> reader;
+    private final long maxAgeMillis;
+
+    /**
+     * @param reader       Reads the settings of a user from the user properties
+     * @param maxAgeMillis Maximum age of a snapshot, 0 or negative for no limit
+     */
+    public RabbitSettingsCache(Function<SUser, RabbitSettings> reader, long maxAgeMillis) {
+        this.reader = reader;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @param user The user to be notified
+     * @return The current settings of the user
+     */
+    public RabbitSettings get(SUser user) {
+        RabbitSettings snapshot = settings.get(user.getId());
+        if (snapshot == null || isExpired(snapshot)) {
+            snapshot = reader.apply(user);
+            settings.put(user.getId(), snapshot);
+        }
+        return snapshot;
+    }
+
+    public void invalidate(long userId) {
+        settings.remove(userId);
+    }
+
+    public void invalidateAll() {
+        settings.clear();
+    }
+
+    @Override
+    public void userAccountChanged(User user) {
+        invalidate(user.getId());
+    }
+
+    @Override
+    public void userAccountRemoved(User user) {
+        invalidate(user.getId());
+    }
+
+    private boolean isExpired(RabbitSettings snapshot) {
+        return maxAgeMillis > 0 && System.currentTimeMillis() - snapshot.getCreatedMillis() > maxAgeMillis;
+    }
+}
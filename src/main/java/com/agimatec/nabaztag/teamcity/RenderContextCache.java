@@ -0,0 +1,63 @@
+package com.agimatec.nabaztag.teamcity;
+
+import jetbrains.buildServer.Build;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of {@link BuildRenderContext}s by build id. A build usually causes several events, e.g.
+ * notifyBuildFailing followed by notifyBuildFailed, which then share the committers and comments. The least
+ * recently used context is evicted when the cache is full.
+ */
+public class RenderContextCache {
+    private final Map<Long, BuildRenderContext> contexts;
+    private final boolean summarize;
+
+    public RenderContextCache(int maxSize) {
+        this(maxSize, true);
+    }
+
+    /**
+     * @param maxSize   The maximum number of cached builds
+     * @param summarize true to add the number of changes left out to cut comments
+     */
+    public RenderContextCache(final int maxSize, boolean summarize) {
+        this.summarize = summarize;
+        contexts = new LinkedHashMap<Long, BuildRenderContext>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BuildRenderContext> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param build The build of an event
+     * @return The context of the build without a length limit, created if the build is not cached
+     */
+    public BuildRenderContext get(Build build) {
+        return get(build, -1);
+    }
+
+    /**
+     * @param build  The build of an event
+     * @param budget The longest message a recipient of the event hears, negative if one of them has no limit
+     * @return The context of the build, created if the build is not cached and widened to the budget
+     */
+    public synchronized BuildRenderContext get(Build build, int budget) {
+        Long buildId = build.getBuildId();
+        BuildRenderContext context = contexts.get(buildId);
+        if (context == null) {
+            context = new BuildRenderContext(build, budget, summarize);
+            contexts.put(buildId, context);
+        } else {
+            context.widen(budget);
+        }
+        return context;
+    }
+
+    public synchronized int size() {
+        return contexts.size();
+    }
+}
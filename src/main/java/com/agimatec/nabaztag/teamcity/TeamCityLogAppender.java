@@ -0,0 +1,44 @@
+package com.agimatec.nabaztag.teamcity;
+
+import com.agimatec.nabaztag.log.LogAppender;
+import com.agimatec.nabaztag.log.LogEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.log.Loggers;
+
+/**
+ * Writes the log of the plugin to the log of the TeamCity server, teamcity-server.log. The server log is
+ * written by log4j, which adds the time and the thread and has its own appenders, so the events are passed on
+ * at once.
+ */
+public class TeamCityLogAppender implements LogAppender {
+    private final Logger logger;
+
+    public TeamCityLogAppender() {
+        this(Loggers.SERVER);
+    }
+
+    public TeamCityLogAppender(Logger logger) {
+        this.logger = logger;
+    }
+
+    public void append(LogEvent event) {
+        String message = "[buildbunny] " + event.getLogger() + " - " + event.getMessage();
+        switch (event.getLevel()) {
+            case DEBUG:
+                logger.debug(message, event.getThrowable());
+                break;
+            case INFO:
+                logger.info(message, event.getThrowable());
+                break;
+            case WARN:
+                logger.warn(message, event.getThrowable());
+                break;
+            default:
+                logger.error(message, event.getThrowable());
+        }
+    }
+
+    public void flush(long timeoutMillis) {
+        // written already
+    }
+}
@@ -0,0 +1,113 @@
+package com.agimatec.nabaztag.teamcity;
+
+import jetbrains.buildServer.tests.TestName;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A short spoken summary of many tests, e.g. "412 tests in 3 suites". TeamCity mutes tests or assigns a
+ * responsible for thousands of tests at once, so the tests are counted while they are walked once instead of
+ * being listed. Tests are grouped by their suite, or by their package or class if they have no suite.
+ * <p/>
+ * The memory is bounded: only the first tests' groups are remembered, beyond that the summary says "more than".
+ */
+public class TestSummary {
+    // up to this number of distinct suites are counted
+    private static final int MAX_COUNTED_SUITES = 1000;
+
+    private int count;
+    // the name of the first test, spoken if it stays the only one
+    private String first;
+    private final Set<String> suites = new HashSet<String>();
+    // true if there were more suites than counted
+    private boolean moreSuites;
+
+    /**
+     * @param tests The tests, walked once
+     * @return The summary of the tests
+     */
+    public static TestSummary of(Iterable<TestName> tests) {
+        TestSummary summary = new TestSummary();
+        for (TestName test : tests) {
+            summary.add(test);
+        }
+        return summary;
+    }
+
+    /**
+     * This method counts a test
+     *
+     * @param test The name of the test
+     */
+    public void add(TestName test) {
+        if (test != null) {
+            add(suiteOf(test), notEmpty(test.getTestMethodName()) ? test.getTestMethodName() : test.getAsString());
+        }
+    }
+
+    /**
+     * This method counts a test
+     *
+     * @param suite The suite, package or class of the test, null if it has none
+     * @param name  The name of the test to be spoken
+     */
+    public void add(String suite, String name) {
+        if (count++ == 0) {
+            first = name;
+        }
+        if (suite != null && !suites.contains(suite)) {
+            if (suites.size() < MAX_COUNTED_SUITES) {
+                suites.add(suite);
+            } else {
+                moreSuites = true;
+            }
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of distinct suites, at most the number which is counted
+     */
+    public int getSuiteCount() {
+        return suites.size();
+    }
+
+    /**
+     * @return The summary to be spoken, e.g. "test testLogin in com.acme.web" or "412 tests in 3 suites"
+     */
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (count == 1) {
+            text.append("test ").append(first);
+        } else {
+            text.append(count).append(" tests");
+        }
+
+        if (moreSuites) {
+            text.append(" in more than ").append(MAX_COUNTED_SUITES).append(" suites");
+        } else if (suites.size() == 1) {
+            text.append(" in ").append(suites.iterator().next());
+        } else if (suites.size() > 1) {
+            text.append(" in ").append(suites.size()).append(" suites");
+        }
+        return text.toString();
+    }
+
+    private static String suiteOf(TestName test) {
+        if (notEmpty(test.getSuite())) {
+            return test.getSuite();
+        }
+        if (notEmpty(test.getPackageName())) {
+            return test.getPackageName();
+        }
+        return notEmpty(test.getClassName()) ? test.getClassName() : null;
+    }
+
+    private static boolean notEmpty(String value) {
+        return value != null && value.length() > 0;
+    }
+}
@@ -0,0 +1,95 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.BuildRenderContext;
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.vcs.VcsModification;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BuildRenderContextTest extends TestCase {
+
+    public void testAllChangesFit() {
+        BuildRenderContext context = new BuildRenderContext(build(modification("simon", "Fix NPE"),
+                modification("mark", ""), modification("simon", "Add voices")));
+        assertEquals("Fix NPE. Add voices", context.getComments());
+        assertEquals("simon, mark", context.getCommitters());
+    }
+
+    public void testLargeMergeIsSummarized() {
+        List<VcsModification> changes = new ArrayList<VcsModification>();
+        for (int i = 0; i < 500; i++) {
+            changes.add(modification("developer" + (i % 3), "Change number " + i));
+        }
+        BuildRenderContext context = new BuildRenderContext(build(changes), 40, true);
+        // 16 + 2 + 16 + 2 + 16 characters fill the budget after three changes
+        assertEquals("Change number 0. Change number 1. Change, and 497 more changes", context.getComments());
+        assertEquals("developer0, developer1, developer2", context.getCommitters());
+
+        assertEquals("Change number 0. Change number 1. Change", new BuildRenderContext(build(changes), 40, false).getComments());
+    }
+
+    public void testCommittersAreCut() {
+        List<VcsModification> changes = new ArrayList<VcsModification>();
+        for (int i = 0; i < 100; i++) {
+            changes.add(modification("developer" + i, "Change"));
+        }
+        assertEquals("developer0, developer1, devel", new BuildRenderContext(build(changes), 29, true).getCommitters());
+    }
+
+    public void testNoBudget() {
+        List<VcsModification> changes = new ArrayList<VcsModification>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            changes.add(modification("developer", "Change number " + i));
+            expected.append(i > 0 ? ". " : "").append("Change number ").append(i);
+        }
+        BuildRenderContext context = new BuildRenderContext(build(changes), -1, true);
+        assertEquals(expected.toString(), context.getComments());
+        assertEquals("developer", context.getCommitters());
+    }
+
+    private static Build build(VcsModification... changes) {
+        List<VcsModification> list = new ArrayList<VcsModification>();
+        for (VcsModification change : changes) {
+            list.add(change);
+        }
+        return build(list);
+    }
+
+    private static Build build(final List<VcsModification> changes) {
+        return (Build) proxy(Build.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getContainingChanges")) {
+                    return changes;
+                }
+                if (method.getName().equals("getBuildId")) {
+                    return 1L;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static VcsModification modification(final String userName, final String description) {
+        return (VcsModification) proxy(VcsModification.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getUserName")) {
+                    return userName;
+                }
+                if (method.getName().equals("getDescription")) {
+                    return description;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(BuildRenderContextTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
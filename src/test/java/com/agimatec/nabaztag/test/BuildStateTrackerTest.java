@@ -0,0 +1,57 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.BuildStateTracker;
+import junit.framework.TestCase;
+
+public class BuildStateTrackerTest extends TestCase {
+    public void testRepeatSuppressed() {
+        BuildStateTracker tracker = new BuildStateTracker(60000, 100);
+        assertTrue(tracker.announce(1, "buildHanging", "12345", 1000));
+        assertFalse(tracker.announce(1, "buildHanging", "12345", 2000));
+        // other rabbits, events and builds are announced
+        assertTrue(tracker.announce(1, "buildHanging", "67890", 2000));
+        assertTrue(tracker.announce(1, "buildFailing", "12345", 2000));
+        assertTrue(tracker.announce(2, "buildHanging", "12345", 2000));
+        // the quiet period is over
+        assertTrue(tracker.announce(1, "buildHanging", "12345", 61000));
+        assertFalse(tracker.announce(1, "buildHanging", "12345", 62000));
+    }
+
+    public void testFinishedBuildIsForgotten() {
+        BuildStateTracker tracker = new BuildStateTracker(60000, 100);
+        tracker.announce(1, "buildFailing", "12345", 1000);
+        tracker.finished(1);
+        assertEquals(0, tracker.size());
+        assertTrue(tracker.announce(1, "buildFailing", "12345", 2000));
+    }
+
+    public void testQuietBuildsAreEvicted() {
+        BuildStateTracker tracker = new BuildStateTracker(60000, 100);
+        tracker.announce(1, "buildHanging", "12345", 1000);
+        tracker.announce(2, "buildHanging", "12345", 30000);
+        // a suppressed repeat does not keep a build
+        assertFalse(tracker.announce(1, "buildHanging", "12345", 50000));
+        tracker.announce(3, "buildHanging", "12345", 70000);
+        assertEquals(2, tracker.size());
+        tracker.announce(4, "buildHanging", "12345", 100000);
+        assertEquals(2, tracker.size());
+    }
+
+    public void testBounded() {
+        BuildStateTracker tracker = new BuildStateTracker(60000, 10);
+        for (int build = 0; build < 1000; build++) {
+            tracker.announce(build, "buildFailing", "12345", 1000);
+        }
+        assertEquals(10, tracker.size());
+        // the least recently announced builds were dropped
+        assertTrue(tracker.announce(0, "buildFailing", "12345", 1000));
+        assertFalse(tracker.announce(999, "buildFailing", "12345", 1000));
+    }
+
+    public void testDisabled() {
+        BuildStateTracker tracker = new BuildStateTracker(0, 10);
+        assertTrue(tracker.announce(1, "buildHanging", "12345", 1000));
+        assertTrue(tracker.announce(1, "buildHanging", "12345", 1000));
+        assertEquals(0, tracker.size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.CircuitBreaker;
+import com.agimatec.nabaztag.RetryConfig;
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(config());
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testHalfOpenProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(config());
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        // only one probe at a time
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(250);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            long first = CircuitBreaker.backoff(100, 1000, 1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = CircuitBreaker.backoff(100, 1000, 3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = CircuitBreaker.backoff(100, 1000, 40);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    private static RetryConfig config() {
+        RetryConfig config = new RetryConfig();
+        config.setFailureThreshold(3);
+        config.setOpenMillis(100);
+        config.setMaxOpenMillis(1000);
+        return config;
+    }
+}
@@ -0,0 +1,44 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.teamcity.FanOutPlan;
+import com.agimatec.nabaztag.teamcity.FanOutPlanner;
+import com.agimatec.nabaztag.teamcity.RabbitDelivery;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class FanOutPlannerTest extends TestCase {
+
+    public void testTeamRabbitGetsOneCall() {
+        FanOutPlanner planner = new FanOutPlanner();
+        FanOutPlan plan = planner.plan(Arrays.asList(
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Build Core failed."),
+                new RabbitDelivery(endpoint("12345", "54321"), "", "Build Core failed."),
+                new RabbitDelivery(endpoint("12345", "54321"), "UK-Shirley", "Build Core failed."),
+                new RabbitDelivery(endpoint("67890", "09876"), null, "Build Core failed."),
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Build Core failed.")));
+
+        assertEquals(3, plan.getDeliveries().size());
+        assertEquals(5, plan.getRecipientCount());
+        assertEquals(2, plan.getSavedCalls());
+        assertEquals("UK-Shirley", plan.getDeliveries().get(1).getVoice());
+    }
+
+    public void testDifferentMessagesAreKept() {
+        FanOutPlanner planner = new FanOutPlanner();
+        planner.plan(Arrays.asList(
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Build Core failed."),
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Core ist kaputt.")));
+        planner.plan(Arrays.asList(
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Build Web failed."),
+                new RabbitDelivery(endpoint("12345", "54321"), null, "Build Web failed.")));
+
+        assertEquals(4, planner.getRecipientCount());
+        assertEquals(1, planner.getSavedCalls());
+    }
+
+    private static RabbitEndpoint endpoint(String rabbitID, String token) {
+        return new RabbitEndpoint(rabbitID, token, null);
+    }
+}
@@ -0,0 +1,124 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.RetryConfig;
+import com.agimatec.nabaztag.TransportConfig;
+import com.agimatec.nabaztag.dispatch.GroupBroadcaster;
+import com.agimatec.nabaztag.dispatch.JournalConfig;
+import com.agimatec.nabaztag.dispatch.OutboxJournal;
+import com.agimatec.nabaztag.dispatch.RateLimiter;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class GroupBroadcasterTest extends TestCase {
+    private StandInApiServer server;
+    private NabaztagTransport transport;
+    private NabaztagPublisher publisher;
+    private GroupBroadcaster broadcaster;
+
+    protected void setUp() throws Exception {
+        server = new StandInApiServer(64).start();
+        TransportConfig config = new TransportConfig();
+        config.setMaxConnectionsPerHost(50);
+        transport = new NabaztagTransport(config);
+        RetryConfig retryConfig = new RetryConfig();
+        retryConfig.setMaxRetries(0);
+        publisher = new NabaztagPublisher(transport, retryConfig);
+        broadcaster = new GroupBroadcaster(publisher, 50);
+    }
+
+    protected void tearDown() throws Exception {
+        broadcaster.shutdown();
+        server.stop();
+        transport.close();
+    }
+
+    public void testParallelBroadcast() throws Exception {
+        server.setLatency(100, 0);
+        GroupBroadcaster.BroadcastResult result = broadcaster.broadcast("office", messages(300), 30000).get(30, TimeUnit.SECONDS);
+
+        assertEquals(300, result.getRabbitCount());
+        assertEquals(300, result.getSentCount());
+        assertEquals(0, result.getMissedCount());
+        assertEquals(300, server.getCallCount());
+        // one call after the other would take 30 seconds, 50 at a time take 6 round trips
+        assertTrue(result.toString(), result.getElapsedMillis() < 3000);
+    }
+
+    public void testDeadline() throws Exception {
+        server.setStalls(1, 5000);
+        GroupBroadcaster.BroadcastResult result = broadcaster.broadcast("office", messages(100), 200).get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getSentCount());
+        assertEquals(100, result.getMissedCount());
+        assertTrue(result.toString(), result.getElapsedMillis() < 2000);
+        // the calls after the deadline are not started
+        assertEquals(50, transportCalls());
+    }
+
+    public void testFailedRabbits() throws Exception {
+        server.addRabbit("rabbit0", "token0");
+        GroupBroadcaster.BroadcastResult result = broadcaster.broadcast("office", messages(3), 30000).get(30, TimeUnit.SECONDS);
+
+        assertEquals(1, result.getSentCount());
+        assertEquals(2, result.getFailedCount());
+        assertEquals(0, result.getMissedCount());
+    }
+
+    public void testRateLimitAndJournal() throws Exception {
+        File directory = Files.createTempDirectory("outbox").toFile();
+        OutboxJournal journal = new OutboxJournal(directory, new JournalConfig());
+        // one message per rabbit and minute
+        RateLimiter rateLimiter = new RateLimiter(1, 1);
+        GroupBroadcaster limited = new GroupBroadcaster(publisher, 50, rateLimiter, journal);
+        try {
+            assertEquals(10, limited.broadcast("office", messages(10), 30000).get(30, TimeUnit.SECONDS).getSentCount());
+            // the rabbits have no token left before the deadline
+            GroupBroadcaster.BroadcastResult result = limited.broadcast("office", messages(10), 1000).get(30, TimeUnit.SECONDS);
+            assertEquals(0, result.getSentCount());
+            assertEquals(10, result.getFailedCount());
+            assertEquals(10, server.getCallCount());
+            assertEquals(0, journal.getPendingCount());
+        } finally {
+            limited.shutdown();
+            journal.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    public void testEmptyGroup() throws Exception {
+        GroupBroadcaster.BroadcastResult result = broadcaster.broadcast("office", Collections.<NabaztagRequest>emptyList(), 30000)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(0, result.getRabbitCount());
+    }
+
+    private long transportCalls() throws InterruptedException {
+        // the stalled calls reach the server a little later
+        Thread.sleep(200);
+        return server.getCallCount();
+    }
+
+    private List<NabaztagRequest> messages(int rabbits) {
+        List<NabaztagRequest> requests = new ArrayList<NabaztagRequest>();
+        for (int i = 0; i < rabbits; i++) {
+            requests.add(new NabaztagRequest(new RabbitEndpoint(server.getApiUrl(), "rabbit" + i, "token" + i, null),
+                    "Core failed.", "UK-Penelope", null, null));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,78 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.log.AsyncAppender;
+import com.agimatec.nabaztag.log.Log;
+import com.agimatec.nabaztag.log.LogAppender;
+import com.agimatec.nabaztag.log.LogEvent;
+import com.agimatec.nabaztag.log.LogLevel;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LogTest extends TestCase {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final Log log = Log.get(LogTest.class);
+    private LogLevel previousLevel;
+
+    protected void setUp() throws Exception {
+        previousLevel = Log.getLevel();
+        Log.setAppender(new AsyncAppender(100, new PrintStream(out, true), new PrintStream(err, true)));
+    }
+
+    protected void tearDown() throws Exception {
+        Log.setLevel(previousLevel);
+        Log.setErrorInterval(60000);
+        Log.setAppender(null);
+    }
+
+    public void testLevels() {
+        Log.setLevel(LogLevel.INFO);
+        final AtomicInteger built = new AtomicInteger();
+        log.debug(() -> "debug " + built.incrementAndGet());
+        log.info("rabbit says hello");
+        log.error("rabbit is gone", new IllegalStateException("no ears"));
+        Log.flush();
+
+        assertEquals(0, built.get());
+        String output = out.toString();
+        assertTrue(output.contains("INFO [" + Thread.currentThread().getName() + "] LogTest - rabbit says hello"));
+        assertFalse(output.contains("debug"));
+        assertTrue(err.toString().contains("ERROR"));
+        assertTrue(err.toString().contains("java.lang.IllegalStateException: no ears"));
+
+        Log.setLevel(LogLevel.DEBUG);
+        log.debug(() -> "debug " + built.incrementAndGet());
+        Log.flush();
+        assertTrue(out.toString().contains("debug 1"));
+    }
+
+    public void testRepeatedErrorsAreLimited() {
+        // written at once, so the result does not depend on the appender thread or on other tests
+        final List<String> errors = new ArrayList<String>();
+        Log.setAppender(new LogAppender() {
+            public synchronized void append(LogEvent event) {
+                if (event.getLogger().equals("LogTest")) {
+                    errors.add(event.getMessage());
+                }
+            }
+
+            public void flush(long timeoutMillis) {
+            }
+        });
+        Log.setLevel(LogLevel.INFO);
+        Log.setErrorInterval(200);
+        for (int i = 0; i < 10; i++) {
+            log.errorLimited("12345", "publish failed", null, 1000 + i);
+        }
+        log.errorLimited("54321", "publish failed", null, 1010);
+        log.errorLimited("12345", "publish failed", null, 1250);
+
+        assertEquals(3, errors.size());
+        assertEquals("publish failed (9 times since last report)", errors.get(2));
+    }
+}
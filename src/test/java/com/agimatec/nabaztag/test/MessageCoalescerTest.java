@@ -0,0 +1,141 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.dispatch.JournalConfig;
+import com.agimatec.nabaztag.dispatch.JournaledSink;
+import com.agimatec.nabaztag.dispatch.MessageCoalescer;
+import com.agimatec.nabaztag.dispatch.MessageSink;
+import com.agimatec.nabaztag.dispatch.OutboxJournal;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageCoalescerTest extends TestCase {
+    private final List<NabaztagRequest> sent = new ArrayList<NabaztagRequest>();
+    private final MessageSink sink = new MessageSink() {
+        public synchronized boolean submit(NabaztagRequest request) {
+            sent.add(request);
+            return true;
+        }
+    };
+
+    public void testSingleMessageUnchanged() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 60000);
+        coalescer.offer(message("12345", "Build Core successful.", Nabaztag.EARS_HAPPY), "Core", "succeeded");
+        coalescer.shutdown();
+
+        assertEquals(1, sent.size());
+        assertEquals("Build Core successful.", sent.get(0).getText());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    public void testBurstMerged() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 60000);
+        coalescer.offer(message("12345", "a", Nabaztag.EARS_HAPPY), "Api", "succeeded");
+        coalescer.offer(message("12345", "b", Nabaztag.EARS_SAD), "Core", "failed");
+        coalescer.offer(message("12345", "c", Nabaztag.EARS_HAPPY), "Docs", "succeeded");
+        coalescer.offer(message("12345", "d", Nabaztag.EARS_HAPPY), "Site", "succeeded");
+        coalescer.offer(message("12345", "e", null), "Web", "failed");
+        coalescer.offer(message("67890", "Build Core failed.", Nabaztag.EARS_SAD), "Core", "failed");
+        coalescer.shutdown();
+
+        assertEquals(2, sent.size());
+        NabaztagRequest merged = sent.get(0).getRabbitID().equals("12345") ? sent.get(0) : sent.get(1);
+        assertEquals("3 builds succeeded, Core and Web failed.", merged.getText());
+        assertEquals(Nabaztag.EARS_SAD, merged.getEars());
+        assertEquals(4, coalescer.getCoalescedCount());
+    }
+
+    public void testWindowClosesByItself() throws InterruptedException {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 50);
+        coalescer.offer(message("12345", "a", null), "Core", "failed");
+        coalescer.offer(message("12345", "b", null), "Core", "failed");
+        Thread.sleep(500);
+
+        synchronized (sink) {
+            assertEquals(1, sent.size());
+            assertEquals("Core failed.", sent.get(0).getText());
+        }
+        coalescer.shutdown();
+    }
+
+    public void testNewerMessageReplacesTopic() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 60000);
+        coalescer.offer(message("12345", "a", Nabaztag.EARS_SAD).withPriority(MessagePriority.URGENT, "bt1"), "Core", "failed");
+        coalescer.offer(message("12345", "b", Nabaztag.EARS_HAPPY).withPriority(MessagePriority.NORMAL, "bt1"), "Core", "succeeded");
+        coalescer.shutdown();
+
+        assertEquals(1, sent.size());
+        assertEquals("b", sent.get(0).getText());
+        assertEquals(1, coalescer.getCoalescedCount());
+    }
+
+    public void testMergedPriority() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 60000);
+        coalescer.offer(message("12345", "a", null).withPriority(MessagePriority.URGENT, "bt1"), "Core", "failed");
+        coalescer.offer(message("12345", "b", null).withPriority(MessagePriority.NORMAL, "bt2"), "Web", "succeeded");
+        coalescer.shutdown();
+
+        assertEquals(1, sent.size());
+        assertEquals("Core failed, Web succeeded.", sent.get(0).getText());
+        assertEquals(MessagePriority.URGENT, sent.get(0).getPriority());
+        assertNull(sent.get(0).getTopic());
+    }
+
+    public void testMessageWithoutSubjectIsSpokenAsItIs() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 60000);
+        coalescer.offer(message("12345", "a", null).withPriority(MessagePriority.NORMAL, "bt1"), "Core", "succeeded");
+        coalescer.offer(message("12345", "b", null), "Web", "succeeded");
+        coalescer.offer(message("12345", "Core ist kaputt.", null).withPriority(MessagePriority.URGENT, "bt1"), null, "failed");
+        assertEquals(1, sent.size());
+        assertEquals("Core ist kaputt.", sent.get(0).getText());
+        coalescer.shutdown();
+
+        // the older message about the same topic was replaced
+        assertEquals(2, sent.size());
+        assertEquals("b", sent.get(1).getText());
+        assertEquals(1, coalescer.getCoalescedCount());
+    }
+
+    public void testWindowIsJournaled() throws Exception {
+        File directory = Files.createTempDirectory("outbox").toFile();
+        OutboxJournal journal = new OutboxJournal(directory, new JournalConfig());
+        try {
+            MessageCoalescer coalescer = new MessageCoalescer(new JournaledSink(journal, sink), 60000, journal);
+            coalescer.offer(message("12345", "a", null), "Core", "failed");
+            coalescer.offer(message("12345", "b", null), "Web", "failed");
+            assertEquals(2, journal.getPendingCount());
+            coalescer.shutdown();
+
+            // only the summary is left
+            assertEquals(1, sent.size());
+            assertEquals(1, journal.getPendingCount());
+        } finally {
+            journal.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    public void testDisabled() {
+        MessageCoalescer coalescer = new MessageCoalescer(sink, 0);
+        coalescer.offer(message("12345", "a", null), "Core", "failed");
+        assertEquals(1, sent.size());
+        coalescer.shutdown();
+    }
+
+    private static NabaztagRequest message(String rabbitID, String text, String ears) {
+        return new NabaztagRequest(new RabbitEndpoint(rabbitID, "54321", null), text, null, ears, null);
+    }
+}
@@ -0,0 +1,115 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.dispatch.MessageScheduler;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MessageSchedulerTest extends TestCase {
+    private final List<NabaztagRequest> superseded = new ArrayList<NabaztagRequest>();
+    private final MessageScheduler.SupersededListener listener = new MessageScheduler.SupersededListener() {
+        public void superseded(NabaztagRequest request) {
+            superseded.add(request);
+        }
+    };
+
+    public void testUrgentFirst() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(10, listener);
+        scheduler.offer(message("12345", "Core started.", MessagePriority.NORMAL, "bt1", 1));
+        scheduler.offer(message("12345", "Web succeeded.", MessagePriority.NORMAL, "bt2", 2));
+        scheduler.offer(message("12345", "Docs failed.", MessagePriority.URGENT, "bt3", 3));
+
+        assertEquals("Docs failed.", next(scheduler));
+        assertEquals("Core started.", next(scheduler));
+        assertEquals("Web succeeded.", next(scheduler));
+        assertNull(scheduler.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    public void testNewerMessageSupersedes() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(10, listener);
+        scheduler.offer(message("12345", "Core is failing.", MessagePriority.NORMAL, "bt1", 1));
+        scheduler.offer(message("67890", "Core is failing.", MessagePriority.NORMAL, "bt1", 1));
+        scheduler.offer(message("12345", "Core failed.", MessagePriority.URGENT, "bt1", 2));
+
+        assertEquals(2, scheduler.size());
+        assertEquals(1, superseded.size());
+        assertEquals("Core is failing.", superseded.get(0).getText());
+        assertEquals("12345", superseded.get(0).getRabbitID());
+        assertEquals("Core failed.", next(scheduler));
+        assertEquals("Core is failing.", next(scheduler));
+    }
+
+    public void testOlderMessageIsSuperseded() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(10, listener);
+        scheduler.offer(message("12345", "Core succeeded.", MessagePriority.NORMAL, "bt1", 2));
+        assertTrue(scheduler.offer(message("12345", "Core started.", MessagePriority.NORMAL, "bt1", 1)));
+
+        assertEquals(1, scheduler.size());
+        assertEquals("Core started.", superseded.get(0).getText());
+        assertEquals("Core succeeded.", next(scheduler));
+    }
+
+    public void testUrgentMessageIsNotSupersededByNormalOne() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(10, listener);
+        scheduler.offer(message("12345", "Core failed.", MessagePriority.URGENT, "bt1", 1));
+        scheduler.offer(message("12345", "Core started.", MessagePriority.NORMAL, "bt1", 2));
+        assertEquals(2, scheduler.size());
+        assertTrue(superseded.isEmpty());
+
+        // an urgent message supersedes both
+        scheduler.offer(message("12345", "Core failed again.", MessagePriority.URGENT, "bt1", 3));
+        assertEquals(1, scheduler.size());
+        assertEquals(2, superseded.size());
+        assertEquals("Core failed again.", next(scheduler));
+    }
+
+    public void testRabbitsTakeTurns() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(10, listener);
+        scheduler.offer(message("12345", "a1", MessagePriority.NORMAL, null, 1));
+        scheduler.offer(message("12345", "a2", MessagePriority.NORMAL, null, 2));
+        scheduler.offer(message("12345", "a3", MessagePriority.NORMAL, null, 3));
+        scheduler.offer(message("67890", "b1", MessagePriority.NORMAL, null, 4));
+
+        assertEquals("a1", next(scheduler));
+        assertEquals("b1", next(scheduler));
+        assertEquals("a2", next(scheduler));
+        assertEquals("a3", next(scheduler));
+    }
+
+    public void testCapacity() throws InterruptedException {
+        MessageScheduler scheduler = new MessageScheduler(2, listener);
+        assertTrue(scheduler.offer(message("12345", "a", MessagePriority.NORMAL, "bt1", 1)));
+        assertTrue(scheduler.offer(message("67890", "b", MessagePriority.URGENT, "bt2", 2)));
+        assertFalse(scheduler.offer(message("12345", "c", MessagePriority.NORMAL, "bt3", 3)));
+        assertFalse(scheduler.offer(message("12345", "c", MessagePriority.NORMAL, "bt3", 3), 10, TimeUnit.MILLISECONDS));
+        // superseding needs no room
+        assertTrue(scheduler.offer(message("12345", "d", MessagePriority.NORMAL, "bt1", 4)));
+
+        assertEquals("d", scheduler.pollLeastUrgent(MessagePriority.NORMAL).getText());
+        assertEquals(1, scheduler.size());
+        assertEquals(1, scheduler.clear());
+        assertTrue(scheduler.isEmpty());
+    }
+
+    public void testUrgentMessagesAreNotRemovedForNormalOnes() {
+        MessageScheduler scheduler = new MessageScheduler(2, listener);
+        scheduler.offer(message("12345", "a", MessagePriority.URGENT, null, 1));
+        scheduler.offer(message("67890", "b", MessagePriority.URGENT, null, 2));
+        assertNull(scheduler.pollLeastUrgent(MessagePriority.NORMAL));
+        assertEquals("a", scheduler.pollLeastUrgent(MessagePriority.URGENT).getText());
+    }
+
+    private static String next(MessageScheduler scheduler) throws InterruptedException {
+        NabaztagRequest request = scheduler.poll(0, TimeUnit.MILLISECONDS);
+        return request != null ? request.getText() : null;
+    }
+
+    private static NabaztagRequest message(String rabbitID, String text, MessagePriority priority, String topic, long createdMillis) {
+        return new NabaztagRequest(new RabbitEndpoint(rabbitID, "54321", null), text, null, null, null, createdMillis, priority, topic);
+    }
+}
@@ -0,0 +1,64 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.MessageTemplate;
+import com.agimatec.nabaztag.teamcity.Placeholder;
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class MessageTemplateTest extends TestCase {
+
+    public void testPlaceholders() {
+        MessageTemplate template = MessageTemplate.compile("#USER# broke build #PROJECT#: #COMMENT#");
+        assertEquals("Simon broke build Core: fixed it", template.render("Core", "Simon", "fixed it", "number ", -1, "..."));
+    }
+
+    public void testCompiledOnce() {
+        assertSame(MessageTemplate.compile("Build #PROJECT# failed."), MessageTemplate.compile("Build #PROJECT# failed."));
+    }
+
+    public void testHashReplaced() {
+        MessageTemplate template = MessageTemplate.compile("Build #PROJECT# #1 failed: #COMMENT#");
+        assertEquals("Build Core number 1 failed: fixes number 42", template.render("Core", null, "fixes #42", "number ", -1, "..."));
+    }
+
+    public void testMissingValueKeepsPlaceholder() {
+        MessageTemplate template = MessageTemplate.compile("#USER# is responsible");
+        assertEquals("-USER- is responsible", template.render("Core", null, null, "-", -1, "..."));
+    }
+
+    public void testValuesAreLiteral() {
+        MessageTemplate template = MessageTemplate.compile("#COMMENT#");
+        assertEquals("costs $1 or \\2", template.render("Core", null, "costs $1 or \\2", "number ", -1, "..."));
+    }
+
+    public void testTruncation() {
+        MessageTemplate template = MessageTemplate.compile("Build #PROJECT# failed: #COMMENT#");
+        assertEquals("Build Core failed: a very, et cetera.", template.render("Core", null, "a very long comment", "number ", 25, ", et cetera."));
+        assertEquals("Build Core failed: short", template.render("Core", null, "short", "number ", 24, ", et cetera."));
+        assertEquals("Build number , et cetera.", template.render("#Core", null, "short", "number ", 13, ", et cetera."));
+    }
+
+    public void testOnlyReferencedValuesResolved() {
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<String> comments = () -> {
+            calls.incrementAndGet();
+            return "fixed it";
+        };
+        PlaceholderValues values = new PlaceholderValues(() -> "Core", () -> "Simon", comments);
+
+        assertEquals("Build Core failed.", MessageTemplate.compile("Build #PROJECT# failed.").render(values, "number ", -1, "..."));
+        assertFalse(values.isResolved(Placeholder.COMMENT));
+        assertFalse(values.isResolved(Placeholder.USER));
+        assertEquals(0, calls.get());
+
+        MessageTemplate template = MessageTemplate.compile("#COMMENT#, #COMMENT#");
+        assertTrue(template.uses(Placeholder.COMMENT));
+        assertFalse(template.uses(Placeholder.USER));
+        assertEquals("fixed it, fixed it", template.render(values, "number ", -1, "..."));
+        assertEquals("fixed it, fixed it", template.render(values, "number ", -1, "..."));
+        assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,214 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.TransportConfig;
+import com.agimatec.nabaztag.dispatch.DispatchConfig;
+import com.agimatec.nabaztag.dispatch.NabaztagDispatcher;
+import com.agimatec.nabaztag.dispatch.OverflowPolicy;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One worker and a queue of two messages. The publisher blocks every call until the test releases it, so the
+ * first message keeps the worker busy and the queue fills up.
+ */
+public class NabaztagDispatcherTest extends TestCase {
+    private NabaztagTransport transport;
+    private BlockingPublisher publisher;
+    private DispatchConfig config;
+    private NabaztagDispatcher dispatcher;
+    private final List<NabaztagRequest> completed = Collections.synchronizedList(new ArrayList<NabaztagRequest>());
+    private final List<NabaztagRequest> dropped = Collections.synchronizedList(new ArrayList<NabaztagRequest>());
+
+    protected void setUp() throws Exception {
+        transport = new NabaztagTransport(new TransportConfig());
+        publisher = new BlockingPublisher(transport);
+        config = new DispatchConfig();
+        config.setWorkerCount(1);
+        config.setQueueCapacity(2);
+        config.setRateLimitPerMinute(0);
+    }
+
+    protected void tearDown() throws Exception {
+        publisher.release(100);
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        transport.close();
+    }
+
+    public void testDropOldest() throws Exception {
+        config.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        start();
+        NabaztagRequest second = message("Web failed.");
+        assertTrue(dispatcher.submit(second));
+        assertTrue(dispatcher.submit(message("Docs failed.")));
+        assertTrue(dispatcher.submit(message("Site failed.")));
+
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(Collections.singletonList(second), dropped);
+        assertEquals(2, dispatcher.getQueueDepth());
+        publisher.release(3);
+        dispatcher.shutdown();
+        assertEquals(Arrays.asList("Core failed.", "Docs failed.", "Site failed."), publisher.getTexts());
+    }
+
+    public void testDropNewest() throws Exception {
+        config.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        start();
+        assertTrue(dispatcher.submit(message("Web failed.")));
+        assertTrue(dispatcher.submit(message("Docs failed.")));
+        NabaztagRequest fourth = message("Site failed.");
+        assertFalse(dispatcher.submit(fourth));
+
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(Collections.singletonList(fourth), dropped);
+        publisher.release(3);
+        dispatcher.shutdown();
+        assertEquals(Arrays.asList("Core failed.", "Web failed.", "Docs failed."), publisher.getTexts());
+    }
+
+    public void testBlockTimesOut() throws Exception {
+        config.setOverflowPolicy(OverflowPolicy.BLOCK);
+        config.setOfferTimeoutMillis(200);
+        start();
+        assertTrue(dispatcher.submit(message("Web failed.")));
+        assertTrue(dispatcher.submit(message("Docs failed.")));
+
+        long start = System.currentTimeMillis();
+        assertFalse(dispatcher.submit(message("Site failed.")));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(1, dropped.size());
+    }
+
+    public void testBlockWaitsForSpace() throws Exception {
+        config.setOverflowPolicy(OverflowPolicy.BLOCK);
+        config.setOfferTimeoutMillis(5000);
+        start();
+        assertTrue(dispatcher.submit(message("Web failed.")));
+        assertTrue(dispatcher.submit(message("Docs failed.")));
+
+        // the worker takes the next message once the first call is answered
+        Thread releaser = new Thread(() -> {
+            sleep(100);
+            publisher.release(1);
+        });
+        releaser.start();
+        assertTrue(dispatcher.submit(message("Site failed.")));
+        releaser.join();
+        assertEquals(0, dispatcher.getDroppedCount());
+        publisher.release(3);
+        dispatcher.shutdown();
+        assertEquals(4, publisher.getTexts().size());
+    }
+
+    public void testShutdownPublishesQueued() throws Exception {
+        config.setQueueCapacity(10);
+        start();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(dispatcher.submit(message("Build " + i + " failed.")));
+        }
+        publisher.release(6);
+        dispatcher.shutdown();
+
+        assertEquals(6, publisher.getTexts().size());
+        assertEquals(6, dispatcher.getPublishedCount());
+        assertEquals(6, completed.size());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(0, dispatcher.getDroppedCount());
+        // nothing is accepted after the shutdown
+        assertFalse(dispatcher.submit(message("Core succeeded.")));
+        assertEquals(1, dispatcher.getDroppedCount());
+    }
+
+    public void testVirtualThreadsFallBack() throws Exception {
+        // without virtual threads on this JVM the workers are platform threads of the same name
+        config.setVirtualThreads(true);
+        start();
+        publisher.release(1);
+        dispatcher.shutdown();
+
+        assertEquals(Arrays.asList("Core failed."), publisher.getTexts());
+        assertTrue(publisher.getThreadName(), publisher.getThreadName().startsWith("buildbunny-dispatch-"));
+    }
+
+    /**
+     * Starts the dispatcher and waits until the worker is stuck in the call of the first message
+     */
+    private void start() throws InterruptedException {
+        dispatcher = new NabaztagDispatcher(config, publisher, (request, result) -> {
+            if (result == null) {
+                dropped.add(request);
+            } else {
+                completed.add(request);
+            }
+        });
+        assertTrue(dispatcher.submit(message("Core failed.")));
+        assertTrue(publisher.started.await(5, TimeUnit.SECONDS));
+    }
+
+    private static NabaztagRequest message(String text) {
+        return new NabaztagRequest(new RabbitEndpoint("12345", "54321", null), text, null, null, null);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A publisher whose calls are answered when the test releases them
+     */
+    private static class BlockingPublisher extends NabaztagPublisher {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final Semaphore answers = new Semaphore(0);
+        private final List<String> texts = Collections.synchronizedList(new ArrayList<String>());
+        private volatile String threadName;
+
+        BlockingPublisher(NabaztagTransport transport) {
+            super(transport);
+        }
+
+        public CompletableFuture<PublishResult> publish(NabaztagRequest request, ScheduledExecutorService retryTimer) {
+            threadName = Thread.currentThread().getName();
+            started.countDown();
+            try {
+                answers.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.completedFuture(PublishResult.failed(e, 0));
+            }
+            texts.add(request.getText());
+            return CompletableFuture.completedFuture(PublishResult.fromResponse("TTSSENT", "Message sent", 0));
+        }
+
+        void release(int calls) {
+            answers.release(calls);
+        }
+
+        List<String> getTexts() {
+            return new ArrayList<String>(texts);
+        }
+
+        String getThreadName() {
+            return threadName;
+        }
+    }
+}
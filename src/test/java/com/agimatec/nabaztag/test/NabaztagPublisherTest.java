@@ -0,0 +1,142 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.CircuitBreaker;
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.RetryConfig;
+import com.agimatec.nabaztag.TransportConfig;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NabaztagPublisherTest extends TestCase {
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile int failingCalls;
+    private NabaztagTransport transport;
+
+    protected void setUp() throws Exception {
+        // answers the calls without a network, the first failingCalls calls fail
+        transport = new NabaztagTransport(new TransportConfig()) {
+            public PublishResult call(String urlString) {
+                if (calls.incrementAndGet() <= failingCalls) {
+                    return PublishResult.failed(new IOException("Nabaztag API returned HTTP 503"), 1);
+                }
+                return PublishResult.fromResponse("TTSSENT", null, 1);
+            }
+        };
+    }
+
+    protected void tearDown() throws Exception {
+        transport.close();
+    }
+
+    public void testRetry() {
+        failingCalls = 2;
+        PublishResult result = new NabaztagPublisher(transport, config(2)).publish(request());
+        assertTrue(result.isSuccess());
+        assertEquals(3, calls.get());
+    }
+
+    public void testRejectedIsNotRetried() {
+        NabaztagTransport rejecting = new NabaztagTransport(new TransportConfig()) {
+            public PublishResult call(String urlString) {
+                calls.incrementAndGet();
+                return PublishResult.fromResponse("NOGOODTOKENORSERIAL", null, 1);
+            }
+        };
+        assertEquals(PublishResult.Status.REJECTED, new NabaztagPublisher(rejecting, config(2)).publish(request()).getStatus());
+        assertEquals(1, calls.get());
+        rejecting.close();
+    }
+
+    public void testCircuitOpens() throws Exception {
+        failingCalls = Integer.MAX_VALUE;
+        NabaztagPublisher publisher = new NabaztagPublisher(transport, config(0));
+        assertEquals(PublishResult.Status.FAILED, publisher.publish(request()).getStatus());
+        assertEquals(PublishResult.Status.FAILED, publisher.publishAsync(request()).get().getStatus());
+        assertEquals(CircuitBreaker.State.OPEN, publisher.getCircuitStates().get("12345"));
+
+        assertEquals(PublishResult.Status.CIRCUIT_OPEN, publisher.publish(request()).getStatus());
+        assertEquals(2, calls.get());
+    }
+
+    public void testRetryOnTimer() throws Exception {
+        failingCalls = 2;
+        RetryConfig config = config(2);
+        config.setBaseDelayMillis(200);
+        config.setMaxDelayMillis(400);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CompletableFuture<PublishResult> result = new NabaztagPublisher(transport, config).publish(request(), timer);
+            // the caller does not wait for the retries
+            assertFalse(result.isDone());
+            assertEquals(1, calls.get());
+            assertTrue(result.get(5, TimeUnit.SECONDS).isSuccess());
+            assertEquals(3, calls.get());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    public void testExceptionInProbeDoesNotKeepCircuitOpen() throws Exception {
+        final AtomicInteger throwing = new AtomicInteger();
+        NabaztagTransport broken = new NabaztagTransport(new TransportConfig()) {
+            public PublishResult call(String urlString) {
+                if (throwing.get() > 0) {
+                    throw new IllegalStateException("broken transport");
+                }
+                return PublishResult.failed(new IOException("Nabaztag API returned HTTP 503"), 1);
+            }
+        };
+        RetryConfig config = config(0);
+        config.setFailureThreshold(1);
+        config.setOpenMillis(1);
+        config.setMaxOpenMillis(1);
+        NabaztagPublisher publisher = new NabaztagPublisher(broken, config);
+        publisher.publish(request());
+        Thread.sleep(10);
+
+        throwing.set(1);
+        try {
+            publisher.publish(request());
+            fail("the probe should fail with the exception");
+        } catch (IllegalStateException expected) {
+        }
+        Thread.sleep(10);
+        throwing.set(0);
+        // the next probe is let through
+        assertEquals(PublishResult.Status.FAILED, publisher.publish(request()).getStatus());
+        broken.close();
+    }
+
+    public void testBeansShareThePublisher() {
+        Nabaztag first = new Nabaztag();
+        first.setTransport(transport);
+        Nabaztag second = new Nabaztag();
+        second.setTransport(transport);
+        assertSame(first.getTransport().getPublisher(), second.getTransport().getPublisher());
+    }
+
+    private static RetryConfig config(int maxRetries) {
+        RetryConfig config = new RetryConfig();
+        config.setMaxRetries(maxRetries);
+        config.setBaseDelayMillis(10);
+        config.setMaxDelayMillis(20);
+        config.setFailureThreshold(2);
+        config.setOpenMillis(60000);
+        return config;
+    }
+
+    private static NabaztagRequest request() {
+        return new NabaztagRequest(new RabbitEndpoint("12345", "54321", null), "Build failed", null, null, null);
+    }
+}
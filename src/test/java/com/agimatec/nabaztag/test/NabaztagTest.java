@@ -1,9 +1,15 @@
 package com.agimatec.nabaztag.test;
 
 import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.TransportConfig;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * User: Simon Tiffert
@@ -85,6 +91,96 @@ public class NabaztagTest extends TestCase {
         assertEquals("http://api.nabaztag.com/vl/FR/api.jsp?sn="+RABBIT_ID+"&token="+TOKEN+"&ttlive=800", url);
     }
 
+    public void testRequestUrl() {
+        Nabaztag nabaztag = new Nabaztag();
+        nabaztag.setRabbitID(RABBIT_ID);
+        nabaztag.setToken(TOKEN);
+        nabaztag.setVoice(Nabaztag.VOICE_DE);
+        nabaztag.setEars(Nabaztag.EARS_HAPPY);
+        nabaztag.setText("Ich bin ein Hase");
+
+        RabbitEndpoint endpoint = new RabbitEndpoint(RABBIT_ID, TOKEN, null);
+        NabaztagRequest request = new NabaztagRequest(endpoint, "Ich bin ein Hase", Nabaztag.VOICE_DE, Nabaztag.EARS_HAPPY, null);
+        assertEquals(nabaztag.constructBaseUrl(), endpoint.getBaseUrl());
+        assertEquals(nabaztag.constructUrl(), request.toUrl());
+        assertEquals(nabaztag.constructUrl(), nabaztag.toRequest().toUrl());
+        assertNull(nabaztag.getTimeToLive());
+    }
+
+    public void testApiUrl() {
+        Nabaztag nabaztag = new Nabaztag();
+        nabaztag.setApiUrl("http://localhost:8080/vl/FR/api.jsp");
+        nabaztag.setRabbitID(RABBIT_ID);
+        nabaztag.setToken(TOKEN);
+        String url = nabaztag.constructBaseUrl();
+        assertEquals("http://localhost:8080/vl/FR/api.jsp?sn="+RABBIT_ID+"&token="+TOKEN+"&ttlive=600", url);
+        assertEquals(RabbitEndpoint.DEFAULT_API_URL, new RabbitEndpoint(RABBIT_ID, TOKEN, null).getApiUrl());
+    }
+
+    public void testStandInEvent() throws Exception {
+        StandInApiServer server = new StandInApiServer(2).addRabbit(RABBIT_ID, TOKEN).start();
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        try {
+            Nabaztag nabaztag = standInNabaztag(server, transport);
+            nabaztag.setVoice("UK-Shirley");
+            nabaztag.setEars(Nabaztag.EARS_HAPPY);
+            nabaztag.setText("Build Agimatec Ostium successful & gr\u00FCn.");
+            PublishResult result = nabaztag.publish();
+            assertTrue(result.toString(), result.isSuccess());
+            assertEquals("TTSSENT", result.getCode());
+
+            Map<String, String> call = server.getLastCall();
+            assertEquals(RABBIT_ID, call.get("sn"));
+            assertEquals("UK-Shirley", call.get("voice"));
+            assertEquals("0", call.get("posleft"));
+            assertEquals("Build Agimatec Ostium successful & gr\u00FCn.", call.get("tts"));
+        } finally {
+            transport.close();
+            server.stop();
+        }
+    }
+
+    public void testStandInWrongToken() throws Exception {
+        StandInApiServer server = new StandInApiServer(2).addRabbit(RABBIT_ID, "other").start();
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        try {
+            Nabaztag nabaztag = standInNabaztag(server, transport);
+            nabaztag.setText("Build Agimatec Ostium successful.");
+            PublishResult result = nabaztag.publish();
+            assertEquals(PublishResult.Status.REJECTED, result.getStatus());
+            assertEquals("NOGOODTOKENORSERIAL", result.getCode());
+            // rejected calls are not retried
+            assertEquals(1, server.getCallCount());
+        } finally {
+            transport.close();
+            server.stop();
+        }
+    }
+
+    public void testStandInSupportedVoices() throws Exception {
+        StandInApiServer server = new StandInApiServer(2).setVoices("DE-Otto", "US-Bethany").start();
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        try {
+            Nabaztag nabaztag = standInNabaztag(server, transport);
+            nabaztag.setAction(Nabaztag.ACTION_SUPPORTED_VOICES);
+            String answer = transport.get(nabaztag.toRequest().toEncodedUrl());
+            assertTrue(answer, answer.contains("command=\"DE-Otto\""));
+            assertTrue(answer, answer.contains("command=\"US-Bethany\""));
+        } finally {
+            transport.close();
+            server.stop();
+        }
+    }
+
+    private Nabaztag standInNabaztag(StandInApiServer server, NabaztagTransport transport) {
+        Nabaztag nabaztag = new Nabaztag();
+        nabaztag.setApiUrl(server.getApiUrl());
+        nabaztag.setRabbitID(RABBIT_ID);
+        nabaztag.setToken(TOKEN);
+        nabaztag.setTransport(transport);
+        return nabaztag;
+    }
+
 //    Used for real testing
 //    
 //    public void testNabaztagCall() {
@@ -0,0 +1,122 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.TransportConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+public class NabaztagTransportTest extends TestCase {
+    private static final String RESPONSE = "<rsp><message>TTSSENT</message></rsp>";
+
+    private HttpServer server;
+    private volatile long stallMillis;
+
+    protected void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(stallMillis);
+                } catch (InterruptedException ignored) {
+                }
+                byte[] body = RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    public void testGet() throws Exception {
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        assertEquals(RESPONSE, transport.get(url()));
+        assertEquals(RESPONSE, transport.get(url()));
+        transport.close();
+    }
+
+    public void testGetAsync() throws Exception {
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        assertEquals(RESPONSE, transport.getAsync(url()).get());
+        transport.close();
+    }
+
+    public void testCall() throws Exception {
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        PublishResult result = transport.callAsync(url()).get();
+        assertTrue(result.isSuccess());
+        assertEquals("TTSSENT", result.getCode());
+        transport.close();
+    }
+
+    public void testThreadsAreBoundedByConnections() throws Exception {
+        stallMillis = 50;
+        TransportConfig config = new TransportConfig();
+        config.setMaxConnectionsPerHost(3);
+        NabaztagTransport transport = new NabaztagTransport(config);
+
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        List<CompletableFuture<String>> calls = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 20; i++) {
+            calls.add(transport.supplyAsync(() -> {
+                threads.add(Thread.currentThread());
+                try {
+                    return transport.get(url());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        // the calls beyond the connections wait in the queue, none of them times out on a connection
+        for (CompletableFuture<String> call : calls) {
+            assertEquals(RESPONSE, call.get());
+        }
+        assertTrue(String.valueOf(threads.size()), threads.size() <= 3);
+        transport.close();
+    }
+
+    public void testTotalTimeout() throws Exception {
+        stallMillis = 2000;
+        TransportConfig config = new TransportConfig();
+        config.setTotalTimeoutMillis(200);
+        NabaztagTransport transport = new NabaztagTransport(config);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.getAsync(url()).get();
+            fail("stalled call should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(PublishResult.Status.TIMED_OUT, transport.call(url()).getStatus());
+        transport.close();
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/vl/FR/api.jsp?sn=12345&token=54321";
+    }
+}
@@ -0,0 +1,65 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.metrics.Histogram;
+import com.agimatec.nabaztag.metrics.NotifierMetrics;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+
+public class NotifierMetricsTest extends TestCase {
+
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(0);
+        assertEquals(101, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.0, histogram.getMean(), 0.01);
+        // power of two buckets, 50 lies in 32..63
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    public void testPublishResults() {
+        NotifierMetrics metrics = new NotifierMetrics();
+        metrics.recordPublish("1", PublishResult.fromResponse("TTSSENT", null, 20));
+        metrics.recordPublish("1", PublishResult.fromResponse("NOGOODTOKENORSERIAL", null, 10));
+        metrics.recordPublish("2", PublishResult.failed(new SocketTimeoutException(), 15000));
+        metrics.recordPublish("2", PublishResult.circuitOpen());
+
+        assertEquals(1, metrics.getSentCount());
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(1, metrics.getTimedOutCount());
+        assertEquals(1, metrics.getCircuitOpenCount());
+        assertEquals(2, metrics.getPublishLatency("1").getCount());
+        assertEquals(15000, metrics.getPublishLatency("2").getMax());
+        assertEquals(2, metrics.getPublishLatencyByRabbit().length);
+
+        metrics.reset();
+        assertEquals(0, metrics.getSentCount());
+        assertNull(metrics.getPublishLatency("1"));
+    }
+
+    public void testJmx() throws Exception {
+        NotifierMetrics metrics = new NotifierMetrics();
+        metrics.recordFanOut(5, 3);
+        metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NotifierMetrics.OBJECT_NAME);
+        assertEquals(0, server.getAttribute(name, "QueueDepth"));
+        assertTrue(((String) server.getAttribute(name, "FanOutSize")).startsWith("count=1"));
+        assertEquals(5L, server.getAttribute(name, "RecipientCount"));
+        assertEquals(2L, server.getAttribute(name, "SavedCalls"));
+        assertEquals(0L, server.getAttribute(name, "CoalescedCount"));
+        metrics.unregister();
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,194 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.MessagePriority;
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagPublisher;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.RetryConfig;
+import com.agimatec.nabaztag.TransportConfig;
+import com.agimatec.nabaztag.dispatch.DispatchConfig;
+import com.agimatec.nabaztag.dispatch.JournalConfig;
+import com.agimatec.nabaztag.dispatch.LeaseConfig;
+import com.agimatec.nabaztag.dispatch.NabaztagDispatcher;
+import com.agimatec.nabaztag.dispatch.OutboxJournal;
+import com.agimatec.nabaztag.dispatch.ShardLeases;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OutboxJournalTest extends TestCase {
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("outbox").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testRecoverPending() throws Exception {
+        OutboxJournal journal = new OutboxJournal(directory, new JournalConfig());
+        NabaztagRequest done = request("Core succeeded.", System.currentTimeMillis());
+        NabaztagRequest pending = new NabaztagRequest(new RabbitEndpoint("http://127.0.0.1:8080/api.jsp", "12345", "54321", "600"),
+                "Gr\u00FC\u00DFe, Core failed & Web #3 too", Nabaztag.VOICE_DE, Nabaztag.EARS_SAD, null, System.currentTimeMillis(),
+                MessagePriority.URGENT, "bt7");
+        NabaztagRequest expired = request("Web failed.", System.currentTimeMillis() - 3600000);
+        journal.append(done);
+        journal.append(pending);
+        journal.append(expired);
+        journal.complete(done);
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(directory, new JournalConfig());
+        List<NabaztagRequest> recovered = reopened.recover();
+        assertEquals(1, recovered.size());
+        NabaztagRequest request = recovered.get(0);
+        assertEquals(pending.getText(), request.getText());
+        assertEquals(pending.getVoice(), request.getVoice());
+        assertEquals(pending.getEars(), request.getEars());
+        assertNull(request.getAction());
+        assertEquals(pending.getCreatedMillis(), request.getCreatedMillis());
+        assertEquals(pending.getEndpoint(), request.getEndpoint());
+        assertEquals(MessagePriority.URGENT, request.getPriority());
+        assertEquals("bt7", request.getTopic());
+
+        // the recovered message is journaled again, once it is done nothing is left
+        reopened.complete(request);
+        reopened.close();
+        assertTrue(new OutboxJournal(directory, new JournalConfig()).recover().isEmpty());
+    }
+
+    public void testTornWrite() throws Exception {
+        OutboxJournal journal = new OutboxJournal(directory, new JournalConfig());
+        journal.append(request("Core failed.", System.currentTimeMillis()));
+        journal.append(request("Web failed.", System.currentTimeMillis()));
+        journal.close();
+
+        // damage the last byte of the second entry
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        int first = raf.readInt();
+        raf.seek(8 + first);
+        int second = raf.readInt();
+        raf.seek(8 + first + 8 + second - 1);
+        raf.write(0x55);
+        raf.close();
+
+        List<NabaztagRequest> recovered = new OutboxJournal(directory, new JournalConfig()).recover();
+        assertEquals(1, recovered.size());
+        assertEquals("Core failed.", recovered.get(0).getText());
+    }
+
+    public void testSegmentsAreCompacted() throws Exception {
+        JournalConfig config = new JournalConfig();
+        config.setSegmentSize(4096);
+        config.setMaxSegments(3);
+        OutboxJournal journal = new OutboxJournal(directory, config);
+
+        NabaztagRequest longLived = request("Still pending.", System.currentTimeMillis());
+        journal.append(longLived);
+        List<NabaztagRequest> done = new ArrayList<NabaztagRequest>();
+        for (int i = 0; i < 1000; i++) {
+            NabaztagRequest request = request("Build " + i + " succeeded.", System.currentTimeMillis());
+            journal.append(request);
+            journal.complete(request);
+        }
+        assertTrue(journal.getSegmentCount() <= 3);
+        assertEquals(1, journal.getPendingCount());
+        journal.close();
+        assertTrue(directory.listFiles().length <= 3);
+
+        List<NabaztagRequest> recovered = new OutboxJournal(directory, config).recover();
+        assertEquals(1, recovered.size());
+        assertEquals("Still pending.", recovered.get(0).getText());
+    }
+
+    public void testLiveEntriesAreCompacted() throws Exception {
+        JournalConfig config = new JournalConfig();
+        config.setSegmentSize(512);
+        config.setMaxSegments(2);
+        OutboxJournal journal = new OutboxJournal(directory, config);
+
+        // a few entries per segment, nearly all of them stay pending
+        List<NabaztagRequest> pending = new ArrayList<NabaztagRequest>();
+        for (int i = 0; i < 60; i++) {
+            NabaztagRequest request = request("Build " + i + " failed.", System.currentTimeMillis());
+            journal.append(request);
+            if (i % 10 == 9) {
+                journal.complete(request);
+            } else {
+                pending.add(request);
+            }
+        }
+        assertEquals(pending.size(), journal.getPendingCount());
+        journal.close();
+
+        List<NabaztagRequest> recovered = new OutboxJournal(directory, config).recover();
+        assertEquals(pending.size(), recovered.size());
+        for (int i = 0; i < pending.size(); i++) {
+            assertEquals(pending.get(i).getText(), recovered.get(i).getText());
+        }
+    }
+
+    public void testReplayAfterOwnershipChanged() throws Exception {
+        StandInApiServer server = new StandInApiServer(4).start();
+        File leaseDirectory = Files.createTempDirectory("leases").toFile();
+        ShardLeases a = new ShardLeases(leaseDirectory, "a", new LeaseConfig());
+        ShardLeases b = new ShardLeases(leaseDirectory, "b", new LeaseConfig());
+        NabaztagTransport transport = new NabaztagTransport(new TransportConfig());
+        try {
+            a.heartbeat(1000);
+            String rabbitID = "0013D3849A2B";
+            assertTrue(a.isOwner(rabbitID, 1000));
+            OutboxJournal journal = new OutboxJournal(directory, new JournalConfig());
+            journal.append(new NabaztagRequest(new RabbitEndpoint(server.getApiUrl(), rabbitID, "54321", null),
+                    "Core failed.", null, null, null));
+            journal.close();
+
+            // a was down long enough for b to take its shards
+            b.heartbeat(20000);
+            a.heartbeat(20000);
+            assertFalse(a.isOwner(rabbitID, 20000));
+
+            OutboxJournal reopened = new OutboxJournal(directory, new JournalConfig());
+            NabaztagDispatcher dispatcher = new NabaztagDispatcher(new DispatchConfig(),
+                    new NabaztagPublisher(transport, new RetryConfig()), (request, result) -> reopened.complete(request));
+            assertEquals(1, reopened.replay(dispatcher));
+            dispatcher.shutdown();
+            reopened.close();
+
+            assertEquals(1, server.getCallCount());
+            assertEquals("Core failed.", server.getLastCall().get("tts"));
+            assertEquals(0, reopened.getPendingCount());
+        } finally {
+            a.close();
+            b.close();
+            transport.close();
+            server.stop();
+            File[] files = leaseDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            leaseDirectory.delete();
+        }
+    }
+
+    private static NabaztagRequest request(String text, long createdMillis) {
+        return new NabaztagRequest(new RabbitEndpoint("12345", "54321", "600"), text, null, Nabaztag.EARS_HAPPY, null, createdMillis);
+    }
+}
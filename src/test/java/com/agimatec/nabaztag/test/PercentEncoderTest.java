@@ -0,0 +1,38 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.Nabaztag;
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.PercentEncoder;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import junit.framework.TestCase;
+
+import java.net.URLEncoder;
+
+public class PercentEncoderTest extends TestCase {
+
+    public void testUnreserved() {
+        assertEquals("Core-1.0_rc~2", PercentEncoder.encode("Core-1.0_rc~2"));
+    }
+
+    public void testReserved() {
+        assertEquals("Ich%20bin%20ein%20Hase", PercentEncoder.encode("Ich bin ein Hase"));
+        assertEquals("a%26b%3Fc%3Dd%25e%23f%2Bg", PercentEncoder.encode("a&b?c=d%e#f+g"));
+    }
+
+    public void testUtf8() throws Exception {
+        String text = "Gr\u00FC\u00DFe \u20AC \uD83D\uDC30";
+        assertEquals(URLEncoder.encode(text, "UTF-8").replace("+", "%20"), PercentEncoder.encode(text));
+    }
+
+    public void testCachedParts() {
+        assertSame(PercentEncoder.encodeCached(Nabaztag.VOICE_DE), PercentEncoder.encodeCached(Nabaztag.VOICE_DE));
+        assertEquals(Nabaztag.EARS_SAD, PercentEncoder.encodeQueryCached(Nabaztag.EARS_SAD));
+    }
+
+    public void testEncodedUrl() {
+        NabaztagRequest request = new NabaztagRequest(new RabbitEndpoint("12345", "54321", null),
+                "Fix #42 & more", Nabaztag.VOICE_DE, Nabaztag.EARS_HAPPY, null);
+        assertEquals("http://api.nabaztag.com/vl/FR/api.jsp?sn=12345&token=54321&ttlive=600&posright=0&posleft=0"
+                + "&tts=Fix%20%2342%20%26%20more&voice=DE-Otto", request.toEncodedUrl());
+    }
+}
@@ -0,0 +1,78 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import com.agimatec.nabaztag.teamcity.RabbitGroup;
+import com.agimatec.nabaztag.teamcity.RabbitGroupRegistry;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class RabbitGroupRegistryTest extends TestCase {
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("rabbit-groups", ".properties");
+        file.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testNoFile() {
+        assertTrue(new RabbitGroupRegistry(file, null, 10000, 200).getGroups().isEmpty());
+    }
+
+    public void testGroups() throws Exception {
+        write("groups=office, backend, empty",
+                "group.office.rabbits=0013D3849A2B:token1, 0013D3849A2C:token2, broken",
+                "group.office.voice=UK-Penelope",
+                "group.office.deadline=5000",
+                "group.office.maxLength=-1",
+                "group.office.message.buildFailed=Attention, #PROJECT# failed.",
+                "group.backend.rabbits=0013D3849A2D:token3",
+                "group.backend.projects=project1",
+                "group.backend.events=buildFailed, buildHanging");
+        RabbitGroupRegistry registry = new RabbitGroupRegistry(file, "http://127.0.0.1/api.jsp", 10000, 200);
+
+        List<RabbitGroup> groups = registry.getGroups();
+        assertEquals(2, groups.size());
+        RabbitGroup office = groups.get(0);
+        assertEquals("office", office.getName());
+        assertEquals(2, office.getRabbits().size());
+        assertEquals("0013D3849A2C", office.getRabbits().get(1).getRabbitID());
+        assertEquals("http://127.0.0.1/api.jsp", office.getRabbits().get(1).getApiUrl());
+        assertEquals("UK-Penelope", office.getVoice());
+        assertEquals(5000, office.getDeadlineMillis());
+        assertEquals(-1, office.getMaxLength());
+        assertEquals("Attention, Core failed.",
+                office.getTemplate("buildFailed", "Build #PROJECT# failed.").render(PlaceholderValues.of("Core", null, null), "", -1, ""));
+        assertEquals("Build Core started.",
+                office.getTemplate("buildStarted", "Build #PROJECT# started.").render(PlaceholderValues.of("Core", null, null), "", -1, ""));
+        assertEquals(10000, groups.get(1).getDeadlineMillis());
+        assertEquals(200, groups.get(1).getMaxLength());
+
+        assertEquals(2, registry.getGroups("project1", "buildFailed").size());
+        assertEquals(1, registry.getGroups("project1", "buildStarted").size());
+        assertEquals(1, registry.getGroups("project2", "buildFailed").size());
+    }
+
+    public void testChangedFileIsReadAgain() throws Exception {
+        write("groups=office", "group.office.rabbits=0013D3849A2B:token1");
+        RabbitGroupRegistry registry = new RabbitGroupRegistry(file, null, 10000, 200);
+        assertEquals(1, registry.getGroups().get(0).getRabbits().size());
+
+        write("groups=office", "group.office.rabbits=0013D3849A2B:token1, 0013D3849A2C:token2");
+        assertEquals(2, registry.getGroups().get(0).getRabbits().size());
+
+        file.delete();
+        assertTrue(registry.getGroups().isEmpty());
+    }
+
+    private void write(String... lines) throws Exception {
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,104 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.NabaztagNotificator;
+import com.agimatec.nabaztag.teamcity.RabbitSettings;
+import com.agimatec.nabaztag.teamcity.RabbitSettingsCache;
+import jetbrains.buildServer.users.PropertyKey;
+import jetbrains.buildServer.users.SUser;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RabbitSettingsCacheTest extends TestCase {
+    // the user properties by the name after the notificator type, e.g. rabbitId
+    private final Map<String, String> properties = new HashMap<String, String>();
+    // the reads of each property
+    private final Map<String, Integer> reads = new HashMap<String, Integer>();
+    private RabbitSettingsCache cache;
+    private SUser user;
+
+    protected void setUp() {
+        cache = new RabbitSettingsCache(user -> NabaztagNotificator.readSettings(user, null), 0);
+        user = user(7);
+        properties.put("rabbitId", "0013D3849A2B");
+        properties.put("rabbitToken", "1234567890");
+        properties.put("maxMessageLength", "80");
+    }
+
+    public void testSettingsAreReadOnce() {
+        RabbitSettings settings = cache.get(user);
+        assertSame(settings, cache.get(user));
+        assertEquals("0013D3849A2B", settings.getRabbitID());
+        assertEquals(80, settings.getMaxLength());
+        assertEquals(1, reads("rabbitId"));
+        assertEquals(1, reads("maxMessageLength"));
+    }
+
+    public void testChangedAccountIsReadAgain() {
+        assertEquals("0013D3849A2B", cache.get(user).getRabbitID());
+        properties.put("rabbitId", "0019DB9E2F3C");
+        properties.put("maxMessageLength", "120");
+        // the cache does not notice a change TeamCity did not report
+        assertEquals("0013D3849A2B", cache.get(user).getRabbitID());
+
+        cache.userAccountChanged(user);
+        RabbitSettings settings = cache.get(user);
+        assertEquals("0019DB9E2F3C", settings.getRabbitID());
+        assertEquals(120, settings.getMaxLength());
+        assertEquals(2, reads("rabbitId"));
+    }
+
+    public void testRemovedAccountIsForgotten() {
+        cache.get(user);
+        properties.remove("rabbitId");
+        cache.userAccountRemoved(user);
+        assertFalse(cache.get(user).hasRabbit());
+    }
+
+    public void testOtherUsersAreKept() {
+        cache.get(user);
+        cache.userAccountChanged(user(8));
+        cache.get(user);
+        assertEquals(1, reads("rabbitId"));
+    }
+
+    public void testMalformedMaxLength() {
+        properties.put("maxMessageLength", " eighty ");
+        RabbitSettings settings = cache.get(user);
+        // no limit rather than a failed notification
+        assertEquals(-1, settings.getMaxLength());
+        assertSame(settings, cache.get(user));
+        assertEquals(1, reads("maxMessageLength"));
+
+        properties.put("maxMessageLength", " 60 ");
+        cache.userAccountChanged(user);
+        assertEquals(60, cache.get(user).getMaxLength());
+    }
+
+    private int reads(String name) {
+        Integer count = reads.get(name);
+        return count != null ? count : 0;
+    }
+
+    private SUser user(final long id) {
+        return (SUser) Proxy.newProxyInstance(RabbitSettingsCacheTest.class.getClassLoader(), new Class<?>[]{SUser.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getId")) {
+                            return id;
+                        }
+                        if (method.getName().equals("getPropertyValue")) {
+                            String key = ((PropertyKey) args[0]).getKey();
+                            String name = key.substring(key.lastIndexOf(':') + 1);
+                            reads.put(name, reads(name) + 1);
+                            return properties.get(name);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
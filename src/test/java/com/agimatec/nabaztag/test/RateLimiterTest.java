@@ -0,0 +1,45 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.NabaztagRequest;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.dispatch.RateLimiter;
+import junit.framework.TestCase;
+
+public class RateLimiterTest extends TestCase {
+
+    public void testBurstThenRate() {
+        // a token every second
+        RateLimiter limiter = new RateLimiter(2, 60);
+        assertEquals(0, limiter.reserve("1", 0, 10000));
+        assertEquals(0, limiter.reserve("1", 0, 10000));
+        assertEquals(1000, limiter.reserve("1", 0, 10000));
+        // the next message queues behind the reserved token
+        assertEquals(2000, limiter.reserve("1", 0, 10000));
+        // other rabbits have their own bucket
+        assertEquals(0, limiter.reserve("2", 0, 10000));
+
+        assertEquals(0, limiter.reserve("1", 5000, 10000));
+    }
+
+    public void testMaxWait() {
+        RateLimiter limiter = new RateLimiter(1, 60);
+        assertEquals(0, limiter.reserve("1", 0, 500));
+        assertEquals(-1, limiter.reserve("1", 0, 500));
+        // nothing was reserved by the refused message
+        assertEquals(1000, limiter.reserve("1", 0, 1000));
+    }
+
+    public void testDisabled() {
+        RateLimiter limiter = new RateLimiter(1, 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve("1", 0, 0));
+        }
+    }
+
+    public void testExpiry() {
+        NabaztagRequest request = new NabaztagRequest(new RabbitEndpoint("1", "2", "60"), "Build failed", null, null, null, 1000);
+        assertFalse(request.isExpired(61000));
+        assertTrue(request.isExpired(61001));
+        assertEquals(1000, request.withText("Build succeeded").getCreatedMillis());
+    }
+}
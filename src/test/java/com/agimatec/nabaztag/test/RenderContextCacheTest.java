@@ -0,0 +1,124 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.BuildRenderContext;
+import com.agimatec.nabaztag.teamcity.Placeholder;
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import com.agimatec.nabaztag.teamcity.RenderContextCache;
+import jetbrains.buildServer.Build;
+import jetbrains.buildServer.vcs.VcsModification;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RenderContextCacheTest extends TestCase {
+    // the calls of each method of the builds
+    private final Map<String, Integer> calls = new HashMap<String, Integer>();
+
+    public void testEventsOfABuildShareItsContext() {
+        RenderContextCache cache = new RenderContextCache(10);
+        Build build = build(1, "Core", modification("simon", "Fix NPE"), modification("mark", "Add voices"));
+
+        // notifyBuildFailing renders the values for its recipients
+        PlaceholderValues failing = cache.get(build).toPlaceholderValues();
+        assertEquals("Core", failing.get(Placeholder.PROJECT));
+        assertEquals("simon, mark", failing.get(Placeholder.USER));
+        assertEquals("Fix NPE. Add voices", failing.get(Placeholder.COMMENT));
+        assertEquals(1, calls("getFullName"));
+        int changes = calls("getContainingChanges");
+
+        // notifyBuildFailed of the same build reads nothing from it again
+        PlaceholderValues failed = cache.get(build).toPlaceholderValues();
+        assertEquals("Core", failed.get(Placeholder.PROJECT));
+        assertEquals("simon, mark", failed.get(Placeholder.USER));
+        assertEquals("Fix NPE. Add voices", failed.get(Placeholder.COMMENT));
+        assertEquals(1, calls("getFullName"));
+        assertEquals(changes, calls("getContainingChanges"));
+        assertEquals(1, cache.size());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        RenderContextCache cache = new RenderContextCache(2);
+        Build first = build(1, "Core");
+        Build second = build(2, "Web");
+        BuildRenderContext firstContext = cache.get(first);
+        BuildRenderContext secondContext = cache.get(second);
+        // the first build is used again, so the second is the eldest
+        assertSame(firstContext, cache.get(first));
+
+        cache.get(build(3, "Docs"));
+        assertEquals(2, cache.size());
+        assertSame(firstContext, cache.get(first));
+        assertNotSame(secondContext, cache.get(second));
+        assertEquals(2, cache.size());
+    }
+
+    public void testUnlimitedRecipientsAreNotCut() {
+        RenderContextCache cache = new RenderContextCache(10);
+        List<VcsModification> changes = new ArrayList<VcsModification>();
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            changes.add(modification("developer", "Change number " + i));
+            all.append(i > 0 ? ". " : "").append("Change number ").append(i);
+        }
+        Build build = build(1, "Core", changes.toArray(new VcsModification[changes.size()]));
+
+        // all recipients of the first event hear 40 characters at most
+        assertEquals("Change number 0. Change number 1. Change, and 197 more changes", cache.get(build, 40).getComments());
+        // a user without a limit hears every change of the next event
+        assertEquals(all.toString(), cache.get(build, -1).getComments());
+        // and the values are not cut again for a later event
+        assertEquals(all.toString(), cache.get(build, 40).getComments());
+        assertEquals(all.toString(), cache.get(build).getComments());
+    }
+
+    private int calls(String method) {
+        Integer count = calls.get(method);
+        return count != null ? count : 0;
+    }
+
+    private Build build(final long buildId, final String fullName, VcsModification... changes) {
+        final List<VcsModification> list = new ArrayList<VcsModification>();
+        for (VcsModification change : changes) {
+            list.add(change);
+        }
+        return (Build) proxy(Build.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                calls.put(method.getName(), calls(method.getName()) + 1);
+                if (method.getName().equals("getBuildId")) {
+                    return buildId;
+                }
+                if (method.getName().equals("getFullName")) {
+                    return fullName;
+                }
+                if (method.getName().equals("getContainingChanges")) {
+                    return list;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static VcsModification modification(final String userName, final String description) {
+        return (VcsModification) proxy(VcsModification.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getUserName")) {
+                    return userName;
+                }
+                if (method.getName().equals("getDescription")) {
+                    return description;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(RenderContextCacheTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
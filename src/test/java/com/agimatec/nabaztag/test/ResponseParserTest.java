@@ -0,0 +1,66 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.PublishResult;
+import com.agimatec.nabaztag.ResponseParser;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.net.SocketTimeoutException;
+
+public class ResponseParserTest extends TestCase {
+
+    public void testSent() throws Exception {
+        ResponseParser parser = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rsp><message>TTSSENT</message><comment>Your text has been sent</comment></rsp>");
+        assertEquals("TTSSENT", parser.getMessage());
+        assertEquals("Your text has been sent", parser.getComment());
+
+        PublishResult result = parser.toResult(42);
+        assertTrue(result.isSuccess());
+        assertEquals(PublishResult.Status.SENT, result.getStatus());
+        assertEquals(42, result.getLatencyMillis());
+    }
+
+    public void testRejected() throws Exception {
+        PublishResult result = parse("<rsp><message>NOGOODTOKENORSERIAL</message>"
+                + "<comment>Your token or serial number are not correct &amp; ...</comment></rsp>").toResult(1);
+        assertEquals(PublishResult.Status.REJECTED, result.getStatus());
+        assertEquals("NOGOODTOKENORSERIAL", result.getCode());
+        assertEquals("Your token or serial number are not correct & ...", result.getComment());
+
+        assertEquals(PublishResult.Status.REJECTED, parse("<rsp><message>ABUSESENDING</message></rsp>").toResult(1).getStatus());
+        assertEquals(PublishResult.Status.REJECTED, parse("<rsp><message>EARPOSITIONNOTSENT</message></rsp>").toResult(1).getStatus());
+    }
+
+    public void testChunks() {
+        String response = "<rsp>\n  <message>TTSSENT</message>\n  <comment>sent</comment>\n</rsp>";
+        ResponseParser parser = new ResponseParser();
+        char[] chars = response.toCharArray();
+        for (int i = 0; i < chars.length; i += 3) {
+            parser.feed(chars, i, Math.min(3, chars.length - i));
+        }
+        assertEquals("TTSSENT", parser.getMessage());
+        assertEquals("sent", parser.getComment());
+    }
+
+    public void testVoices() throws Exception {
+        ResponseParser parser = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rsp><voice lang=\"de\" command=\"DE-Otto\"/><voice lang=\"us\" command=\"US-Bethany\" /></rsp>");
+        assertEquals(2, parser.getVoices().size());
+        assertEquals("DE-Otto", parser.getVoices().get(0));
+        assertEquals("US-Bethany", parser.getVoices().get(1));
+        assertNull(parser.getMessage());
+
+        assertTrue(parse("<rsp><message>TTSSENT</message></rsp>").getVoices().isEmpty());
+    }
+
+    public void testGarbage() throws Exception {
+        assertEquals(PublishResult.Status.FAILED, parse("<html><body>Maintenance</body></html>").toResult(1).getStatus());
+        assertEquals(PublishResult.Status.FAILED, parse("").toResult(1).getStatus());
+        assertEquals(PublishResult.Status.TIMED_OUT, PublishResult.failed(new SocketTimeoutException(), 1).getStatus());
+    }
+
+    private static ResponseParser parse(String response) throws Exception {
+        return ResponseParser.parse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+    }
+}
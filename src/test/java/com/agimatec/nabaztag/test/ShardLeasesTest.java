@@ -0,0 +1,181 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.dispatch.LeaseConfig;
+import com.agimatec.nabaztag.dispatch.ShardLeases;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several nodes in one JVM share a lease directory, the heartbeats are called with a simulated clock.
+ */
+public class ShardLeasesTest extends TestCase {
+    private File directory;
+    private final List<ShardLeases> nodes = new ArrayList<ShardLeases>();
+
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("leases").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        for (ShardLeases node : nodes) {
+            node.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testSingleNodeOwnsAll() throws Exception {
+        ShardLeases a = node("a");
+        a.heartbeat(1000);
+        assertEquals(16, a.getOwnedShards().size());
+        assertTrue(a.isOwner("0013D3849A2B", 1000));
+        // a lease which was not renewed runs out
+        assertFalse(a.isOwner("0013D3849A2B", 11000));
+    }
+
+    public void testNodesShareTheShards() throws Exception {
+        ShardLeases a = node("a");
+        ShardLeases b = node("b");
+        a.heartbeat(1000);
+        b.heartbeat(1000);
+        assertEquals(0, b.getOwnedShards().size());
+
+        // a hands the shards beyond its share over and keeps sending until b took them
+        a.heartbeat(2000);
+        assertEquals(16, a.getOwnedShards().size());
+        assertEquals(8, a.getReleasingShards().size());
+        assertOneOwner(2000, a, b);
+        b.heartbeat(2000);
+        assertEquals(8, b.getOwnedShards().size());
+        assertAnyOwner(2000, a, b);
+
+        // a notices the new owner
+        a.heartbeat(3000);
+        assertEquals(8, a.getOwnedShards().size());
+        assertEquals(0, a.getReleasingShards().size());
+        assertOneOwner(3000, a, b);
+    }
+
+    public void testThreeNodes() throws Exception {
+        ShardLeases a = node("a");
+        ShardLeases b = node("b");
+        ShardLeases c = node("c");
+        for (long now = 1000; now <= 4000; now += 1000) {
+            a.heartbeat(now);
+            b.heartbeat(now);
+            c.heartbeat(now);
+        }
+        assertEquals(16, a.getOwnedShards().size() + b.getOwnedShards().size() + c.getOwnedShards().size());
+        assertTrue(a.getOwnedShards().size() <= 6);
+        assertTrue(b.getOwnedShards().size() <= 6);
+        assertTrue(c.getOwnedShards().size() <= 6);
+        assertOneOwner(4000, a, b, c);
+    }
+
+    public void testFailover() throws Exception {
+        ShardLeases a = node("a");
+        ShardLeases b = node("b");
+        a.heartbeat(1000);
+        b.heartbeat(1000);
+        a.heartbeat(2000);
+        b.heartbeat(2000);
+        a.heartbeat(3000);
+
+        // a stops, its leases run out before b takes them over
+        b.heartbeat(12000);
+        assertEquals(8, b.getOwnedShards().size());
+        b.heartbeat(13000);
+        assertEquals(16, b.getOwnedShards().size());
+        assertOneOwner(13000, a, b);
+
+        // a comes back and gets its share again
+        a.heartbeat(14000);
+        assertEquals(0, a.getOwnedShards().size());
+        b.heartbeat(15000);
+        a.heartbeat(15000);
+        b.heartbeat(16000);
+        assertEquals(8, a.getOwnedShards().size());
+        assertEquals(8, b.getOwnedShards().size());
+        assertOneOwner(16000, a, b);
+    }
+
+    public void testReleasingShardIsKeptWhenTheOtherNodeLeaves() throws Exception {
+        ShardLeases a = node("a");
+        ShardLeases b = node("b");
+        a.heartbeat(1000);
+        b.heartbeat(1000);
+        a.heartbeat(2000);
+        assertEquals(8, a.getReleasingShards().size());
+
+        // b is gone before it took the shards, a keeps them
+        b.close();
+        a.heartbeat(3000);
+        assertEquals(16, a.getOwnedShards().size());
+        assertEquals(0, a.getReleasingShards().size());
+        assertOneOwner(3000, a, b);
+    }
+
+    public void testCloseReleases() throws Exception {
+        ShardLeases a = node("a");
+        ShardLeases b = node("b");
+        a.heartbeat(1000);
+        b.heartbeat(1000);
+        a.heartbeat(2000);
+        b.heartbeat(2000);
+
+        a.close();
+        assertEquals(0, a.getOwnedShards().size());
+        // b takes over at once instead of waiting for the lease time
+        b.heartbeat(3000);
+        assertEquals(16, b.getOwnedShards().size());
+    }
+
+    public void testStart() throws Exception {
+        ShardLeases a = node("a");
+        a.start();
+        assertEquals(16, a.getOwnedShards().size());
+        assertTrue(a.isOwner("0013D3849A2B"));
+    }
+
+    private ShardLeases node(String nodeId) throws Exception {
+        ShardLeases node = new ShardLeases(directory, nodeId, new LeaseConfig());
+        nodes.add(node);
+        return node;
+    }
+
+    private static void assertOneOwner(long now, ShardLeases... nodes) {
+        for (int rabbit = 0; rabbit < 200; rabbit++) {
+            String rabbitID = "0013D38" + rabbit;
+            assertEquals(rabbitID, 1, owners(rabbitID, now, nodes));
+        }
+    }
+
+    /**
+     * During a handover a rabbit may have two owners, but never none
+     */
+    private static void assertAnyOwner(long now, ShardLeases... nodes) {
+        for (int rabbit = 0; rabbit < 200; rabbit++) {
+            String rabbitID = "0013D38" + rabbit;
+            assertTrue(rabbitID, owners(rabbitID, now, nodes) > 0);
+        }
+    }
+
+    private static int owners(String rabbitID, long now, ShardLeases... nodes) {
+        int owners = 0;
+        for (ShardLeases node : nodes) {
+            if (node.isOwner(rabbitID, now)) {
+                owners++;
+            }
+        }
+        return owners;
+    }
+}
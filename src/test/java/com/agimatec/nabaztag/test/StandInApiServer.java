@@ -0,0 +1,295 @@
+package com.agimatec.nabaztag.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local stand-in for the Nabaztag API. It answers api.jsp calls like the real server does: the parameters
+ * sn and token identify the rabbit, tts is answered with TTSSENT, posleft and posright with EARPOSITIONSENT,
+ * action=9 with the supported voices and action=11 with the selected languages. Unknown rabbits and wrong
+ * tokens are answered with NOGOODTOKENORSERIAL, calls without a command with NOCORRECTPARAMETERS.
+ * <p/>
+ * To test the plugin under bad conditions every answer can be delayed, a share of the calls can fail with
+ * HTTP 500 and a share of the calls can stall for longer than the client waits.
+ */
+public class StandInApiServer {
+    /**
+     * The path of the API, like on api.nabaztag.com
+     */
+    public static final String PATH = "/vl/FR/api.jsp";
+
+    // the last calls are kept for tests, load tests use a listener
+    private static final int MAX_RECORDED_CALLS = 1000;
+    private static final String[] DEFAULT_VOICES = {"DE-Otto", "UK-Penelope", "UK-Shirley", "US-Bethany", "US-Billye",
+            "US-Darleen", "US-Liberty", "US-Lilian"};
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // the tokens of the known rabbits by serial number, any rabbit is known if empty
+    private final Map<String, String> rabbits = new ConcurrentHashMap<String, String>();
+    private final LinkedList<Map<String, String>> calls = new LinkedList<Map<String, String>>();
+    private final LongAdder callCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder stallCount = new LongAdder();
+
+    private volatile String[] voices = DEFAULT_VOICES;
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double errorRate;
+    private volatile double stallRate;
+    private volatile long stallMillis = 30000;
+    private volatile Listener listener;
+
+    /**
+     * @param threads The number of threads answering calls, which limits the concurrent calls like a real server
+     * @throws IOException if no local port could be opened
+     */
+    public StandInApiServer(int threads) throws IOException {
+        // answers are written in two parts, without this the delayed ACKs of the client add 40 ms to every call
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+    }
+
+    public StandInApiServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * This method stops the server, stalled calls are interrupted
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The url of the API, to be used instead of {@link com.agimatec.nabaztag.RabbitEndpoint#DEFAULT_API_URL}
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * This method registers a rabbit. Once a rabbit is registered, calls for other rabbits or with other
+     * tokens are rejected.
+     */
+    public StandInApiServer addRabbit(String rabbitID, String token) {
+        rabbits.put(rabbitID, token);
+        return this;
+    }
+
+    /**
+     * @param voices The voices returned for action=9
+     */
+    public StandInApiServer setVoices(String... voices) {
+        this.voices = voices.clone();
+        return this;
+    }
+
+    /**
+     * @param latencyMillis The time every answer is delayed
+     * @param jitterMillis  The maximum random time added to the delay
+     */
+    public StandInApiServer setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate The share of calls which are answered with HTTP 500, between 0 and 1
+     */
+    public StandInApiServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param stallRate   The share of calls which are not answered in time, between 0 and 1
+     * @param stallMillis The time a stalled call waits before it is answered
+     */
+    public StandInApiServer setStalls(double stallRate, long stallMillis) {
+        this.stallRate = stallRate;
+        this.stallMillis = stallMillis;
+        return this;
+    }
+
+    /**
+     * @param listener Called for every call which is answered in time, null for none
+     */
+    public StandInApiServer setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return The decoded parameters of the last calls, oldest first
+     */
+    public List<Map<String, String>> getCalls() {
+        synchronized (calls) {
+            return new ArrayList<Map<String, String>>(calls);
+        }
+    }
+
+    /**
+     * @return The parameters of the last call, null if there was none
+     */
+    public Map<String, String> getLastCall() {
+        synchronized (calls) {
+            return calls.isEmpty() ? null : calls.getLast();
+        }
+    }
+
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    public long getStallCount() {
+        return stallCount.sum();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        try {
+            callCount.increment();
+            Map<String, String> parameters = parse(exchange.getRequestURI().getRawQuery());
+            synchronized (calls) {
+                if (calls.size() >= MAX_RECORDED_CALLS) {
+                    calls.removeFirst();
+                }
+                calls.add(parameters);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latencyMillis + (latencyJitterMillis > 0 ? random.nextLong(latencyJitterMillis + 1) : 0);
+            boolean stalled = stallRate > 0 && random.nextDouble() < stallRate;
+            if (stalled) {
+                stallCount.increment();
+                delay = stallMillis;
+            }
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                errorCount.increment();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            byte[] body = respond(parameters).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+
+            // the client has usually given up on a stalled call and sends it again
+            Listener current = listener;
+            if (current != null && !stalled) {
+                current.answered(parameters);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String respond(Map<String, String> parameters) {
+        String rabbitID = parameters.get("sn");
+        String token = parameters.get("token");
+        if (rabbitID == null || token == null || (!rabbits.isEmpty() && !token.equals(rabbits.get(rabbitID)))) {
+            return message("NOGOODTOKENORSERIAL", "Your token or serial number are not correct !");
+        }
+
+        String action = parameters.get("action");
+        if ("9".equals(action)) {
+            StringBuilder rsp = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp>");
+            for (String voice : voices) {
+                rsp.append("<voice lang=\"").append(voice.substring(0, voice.indexOf('-')).toLowerCase())
+                        .append("\" command=\"").append(voice).append("\"/>");
+            }
+            return rsp.append("</rsp>").toString();
+        }
+        if ("11".equals(action)) {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp><myLang lang=\"fr\"/><myLang lang=\"us\"/></rsp>";
+        }
+
+        StringBuilder rsp = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp>");
+        if (parameters.containsKey("tts")) {
+            rsp.append("<message>TTSSENT</message><comment>Your text has been sent</comment>");
+        }
+        if (parameters.containsKey("posleft") || parameters.containsKey("posright")) {
+            rsp.append("<message>EARPOSITIONSENT</message><comment>Your ears command has been sent</comment>");
+        }
+        if (rsp.indexOf("<message>") < 0) {
+            return message("NOCORRECTPARAMETERS", "Please check the parameters of your request");
+        }
+        return rsp.append("</rsp>").toString();
+    }
+
+    private static String message(String code, String comment) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp><message>" + code + "</message><comment>" + comment
+                + "</comment></rsp>";
+    }
+
+    private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+        if (query == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String pair : query.split("&")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * Notified of every call which was answered
+     */
+    public interface Listener {
+        /**
+         * @param parameters The decoded parameters of the call
+         */
+        void answered(Map<String, String> parameters);
+    }
+}
@@ -0,0 +1,48 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.teamcity.MessageTemplate;
+import com.agimatec.nabaztag.teamcity.PlaceholderValues;
+import com.agimatec.nabaztag.teamcity.TestSummary;
+import junit.framework.TestCase;
+
+public class TestSummaryTest extends TestCase {
+    public void testSingleTest() {
+        TestSummary summary = new TestSummary();
+        summary.add("com.acme.web", "testLogin");
+        assertEquals("test testLogin in com.acme.web", summary.toString());
+    }
+
+    public void testSuitesCounted() {
+        TestSummary summary = new TestSummary();
+        for (int i = 0; i < 412; i++) {
+            summary.add("suite" + (i % 3), "test" + i);
+        }
+        assertEquals(412, summary.getCount());
+        assertEquals("412 tests in 3 suites", summary.toString());
+    }
+
+    public void testOneSuite() {
+        TestSummary summary = new TestSummary();
+        summary.add("com.acme.web", "testLogin");
+        summary.add("com.acme.web", "testLogout");
+        summary.add(null, "testOther");
+        assertEquals("3 tests in com.acme.web", summary.toString());
+    }
+
+    public void testBoundedSuites() {
+        TestSummary summary = new TestSummary();
+        for (int i = 0; i < 100000; i++) {
+            summary.add("suite" + i, "test" + i);
+        }
+        assertEquals(1000, summary.getSuiteCount());
+        assertEquals("100000 tests in more than 1000 suites", summary.toString());
+    }
+
+    public void testPlaceholder() {
+        TestSummary summary = new TestSummary();
+        summary.add("com.acme.web", "testLogin");
+        summary.add("com.acme.core", "testSave");
+        assertEquals("2 tests in 2 suites muted by Alice.", MessageTemplate.compile("#TESTS# muted by #USER#.")
+                .render(PlaceholderValues.of("Core", "Alice", null, summary.toString()), "number ", -1, ""));
+    }
+}
@@ -0,0 +1,101 @@
+package com.agimatec.nabaztag.test;
+
+import com.agimatec.nabaztag.NabaztagTransport;
+import com.agimatec.nabaztag.RabbitEndpoint;
+import com.agimatec.nabaztag.ResponseParser;
+import com.agimatec.nabaztag.TransportConfig;
+import com.agimatec.nabaztag.VoiceCatalogue;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class VoiceCatalogueTest extends TestCase {
+    private StandInApiServer server;
+    private NabaztagTransport transport;
+    private RabbitEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        server = new StandInApiServer(2).addRabbit("12345", "54321").setVoices("DE-Otto", "US-Bethany").start();
+        transport = new NabaztagTransport(new TransportConfig());
+        endpoint = new RabbitEndpoint(server.getApiUrl(), "12345", "54321", null);
+    }
+
+    protected void tearDown() throws Exception {
+        transport.close();
+        server.stop();
+    }
+
+    public void testFetchedVoices() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        transport.close();
+        // the voices arrive only after the lookups before the fetch were checked
+        transport = new NabaztagTransport(new TransportConfig()) {
+            public ResponseParser fetch(String urlString) throws IOException {
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.fetch(urlString);
+            }
+        };
+        VoiceCatalogue catalogue = new VoiceCatalogue(transport, 60000);
+        // nothing is known yet, every voice is accepted
+        assertTrue(catalogue.isSupported(endpoint, "FR-Anastasie"));
+        assertEquals("FR-Anastasie", catalogue.resolve(endpoint, "FR-Anastasie"));
+        released.countDown();
+
+        assertTrue(catalogue.refresh(endpoint).get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("DE-Otto", "US-Bethany"), catalogue.getVoices(endpoint));
+        assertTrue(catalogue.isSupported(endpoint, "DE-Otto"));
+        assertFalse(catalogue.isSupported(endpoint, "FR-Anastasie"));
+
+        assertEquals("DE-Otto", catalogue.resolve(endpoint, "DE-Otto"));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(catalogue.getVoices(endpoint).contains(catalogue.resolve(endpoint, "FR-Anastasie")));
+            assertTrue(catalogue.getVoices(endpoint).contains(catalogue.resolve(endpoint, "")));
+        }
+    }
+
+    public void testLookupFetchesOnce() throws Exception {
+        VoiceCatalogue catalogue = new VoiceCatalogue(transport, 60000);
+        for (int i = 0; i < 10; i++) {
+            catalogue.randomVoice(endpoint);
+        }
+        waitForVoices(catalogue);
+        catalogue.randomVoice(endpoint);
+        assertEquals(1, server.getCallCount());
+    }
+
+    public void testExpiredVoicesAreFetchedAgain() throws Exception {
+        VoiceCatalogue catalogue = new VoiceCatalogue(transport, 0);
+        assertTrue(catalogue.refresh(endpoint).get(5, TimeUnit.SECONDS));
+        server.setVoices("UK-Shirley");
+        // the outdated voices are used while the new ones are fetched
+        assertEquals(Arrays.asList("DE-Otto", "US-Bethany"), catalogue.getVoices(endpoint));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!catalogue.getVoices(endpoint).equals(Arrays.asList("UK-Shirley")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("UK-Shirley"), catalogue.getVoices(endpoint));
+    }
+
+    public void testWrongTokenKeepsDefaultVoices() throws Exception {
+        VoiceCatalogue catalogue = new VoiceCatalogue(transport, 60000);
+        RabbitEndpoint wrongToken = new RabbitEndpoint(server.getApiUrl(), "12345", "other", null);
+        assertFalse(catalogue.refresh(wrongToken).get(5, TimeUnit.SECONDS));
+        assertTrue(catalogue.getVoices(wrongToken).contains("UK-Shirley"));
+        assertTrue(catalogue.isSupported(wrongToken, "FR-Anastasie"));
+    }
+
+    private void waitForVoices(VoiceCatalogue catalogue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!catalogue.isSupported(endpoint, "DE-Otto") || catalogue.isSupported(endpoint, "UK-Shirley")) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}